@@ -0,0 +1,105 @@
+package net.yetamine.lectures.osgi.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import org.apache.felix.scr.impl.Activator;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+
+/**
+ * Runs Declarative Services in an embedded framework.
+ *
+ * <p>
+ * The runtime starts with the context of the system bundle, so that it can be
+ * loaded from the class path like the rest of the benchmarks. The components
+ * must come in bundles though, because the runtime looks for the component
+ * descriptions in the bundles that it extends. Therefore this class builds a
+ * minimal bundle with the given description in memory. The bundle imports the
+ * packages with the component implementation and with the referenced services,
+ * which the system bundle must export.
+ */
+final class ComponentRuntime {
+
+    private final BundleContext context;
+    private final BundleActivator activator = new Activator();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param givenContext
+     *            the context of the system bundle. It must not be {@code null}.
+     */
+    ComponentRuntime(BundleContext givenContext) {
+        context = Objects.requireNonNull(givenContext);
+    }
+
+    /**
+     * Starts the runtime.
+     *
+     * @throws Exception
+     *             if the runtime could not start
+     */
+    void start() throws Exception {
+        activator.start(context);
+    }
+
+    /**
+     * Stops the runtime, which deactivates all components.
+     *
+     * @throws Exception
+     *             if the runtime could not stop
+     */
+    void stop() throws Exception {
+        activator.stop(context);
+    }
+
+    /**
+     * Installs and starts a bundle with a component.
+     *
+     * @param name
+     *            the symbolic name of the bundle. It must not be {@code null}.
+     * @param description
+     *            the XML description of the component. It must not be
+     *            {@code null}.
+     * @param imports
+     *            the packages to import, in the format of the
+     *            {@code Import-Package} header. It must not be {@code null}.
+     *
+     * @return the started bundle
+     *
+     * @throws BundleException
+     *             if the bundle could not be installed or started
+     * @throws IOException
+     *             if the bundle could not be built
+     */
+    Bundle install(String name, String description, String imports) throws BundleException, IOException {
+        final var manifest = new Manifest();
+        final Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+        attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, name);
+        attributes.putValue(Constants.IMPORT_PACKAGE, imports);
+        attributes.putValue("Service-Component", "OSGI-INF/component.xml");
+
+        final var content = new ByteArrayOutputStream();
+        try (JarOutputStream jar = new JarOutputStream(content, manifest)) {
+            jar.putNextEntry(new JarEntry("OSGI-INF/component.xml"));
+            jar.write(description.getBytes(StandardCharsets.UTF_8));
+            jar.closeEntry();
+        }
+
+        final Bundle result = context.installBundle(name, new ByteArrayInputStream(content.toByteArray()));
+        result.start();
+        return result;
+    }
+}
@@ -0,0 +1,67 @@
+package net.yetamine.lectures.osgi.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+import net.yetamine.lectures.osgi.demo.api.NameSupplier;
+
+/**
+ * Implements a component that binds all {@link NameSupplier} services and
+ * counts the bind and unbind invocations, like {@code NamePrinter} from the
+ * Declarative Services demo does, just without printing anything.
+ *
+ * <p>
+ * The runtime creates the instance, hence the counters are static, so that the
+ * benchmarks can watch them. There must be at most one component using this
+ * implementation at a time.
+ */
+public final class CountingComponent {
+
+    /**
+     * Description of the component with a dynamic greedy reference to multiple
+     * {@link NameSupplier} services.
+     */
+    static final String DESCRIPTION = """
+        <?xml version="1.0" encoding="UTF-8"?>
+        <scr:component xmlns:scr="http://www.osgi.org/xmlns/scr/v1.3.0" name="counting" immediate="true">
+          <implementation class="net.yetamine.lectures.osgi.benchmark.CountingComponent"/>
+          <reference name="names"
+            interface="net.yetamine.lectures.osgi.demo.api.NameSupplier"
+            cardinality="0..n"
+            policy="dynamic"
+            policy-option="greedy"
+            bind="bind"
+            unbind="unbind"/>
+        </scr:component>
+        """;
+
+    private static final AtomicLong BOUND = new AtomicLong();
+    private static final AtomicLong UNBOUND = new AtomicLong();
+
+    /**
+     * Creates a new instance.
+     */
+    public CountingComponent() {
+        // Default constructor
+    }
+
+    /**
+     * @return the number of bind invocations so far
+     */
+    static long bound() {
+        return BOUND.get();
+    }
+
+    /**
+     * @return the number of unbind invocations so far
+     */
+    static long unbound() {
+        return UNBOUND.get();
+    }
+
+    void bind(NameSupplier supplier) {
+        BOUND.incrementAndGet();
+    }
+
+    void unbind(NameSupplier supplier) {
+        UNBOUND.incrementAndGet();
+    }
+}
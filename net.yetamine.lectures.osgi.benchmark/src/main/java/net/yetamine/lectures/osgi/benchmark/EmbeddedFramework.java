@@ -0,0 +1,85 @@
+package net.yetamine.lectures.osgi.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+
+/**
+ * Starts and stops an embedded framework for the benchmarks.
+ *
+ * <p>
+ * The framework runs with an empty temporary storage. The benchmarks use the
+ * context of the system bundle, which shares the class path with the
+ * benchmarks, hence the code under test needs no bundles. The system bundle
+ * may export additional packages from the class path for the bundles that the
+ * benchmarks install.
+ */
+final class EmbeddedFramework {
+
+    private EmbeddedFramework() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Starts a new framework.
+     *
+     * @return the started framework
+     *
+     * @throws BundleException
+     *             if the framework could not start
+     * @throws IOException
+     *             if the storage could not be created
+     */
+    static Framework start() throws BundleException, IOException {
+        return start(List.of());
+    }
+
+    /**
+     * Starts a new framework with the system bundle exporting the additional
+     * packages.
+     *
+     * @param packages
+     *            the additional packages to export, in the format of the
+     *            {@code Export-Package} header clauses. It must not be
+     *            {@code null}.
+     *
+     * @return the started framework
+     *
+     * @throws BundleException
+     *             if the framework could not start
+     * @throws IOException
+     *             if the storage could not be created
+     */
+    static Framework start(List<String> packages) throws BundleException, IOException {
+        final var storage = Files.createTempDirectory("framework");
+        final var framework = ServiceLoader.load(FrameworkFactory.class).findFirst().orElseThrow().newFramework(Map.of(
+            Constants.FRAMEWORK_STORAGE, storage.toString(),
+            Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT,
+            Constants.FRAMEWORK_SYSTEMPACKAGES_EXTRA, String.join(",", packages)));
+
+        framework.start();
+        return framework;
+    }
+
+    /**
+     * Stops the framework.
+     *
+     * @param framework
+     *            the framework to stop. It must not be {@code null}.
+     *
+     * @throws BundleException
+     *             if the framework could not stop
+     * @throws InterruptedException
+     *             if interrupted while waiting for the framework to stop
+     */
+    static void stop(Framework framework) throws BundleException, InterruptedException {
+        framework.stop();
+        framework.waitForStop(10_000);
+    }
+}
@@ -0,0 +1,105 @@
+package net.yetamine.lectures.osgi.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.MediaType;
+import net.yetamine.lectures.osgi.jaxrs.whiteboard.Greeting;
+import net.yetamine.lectures.osgi.jaxrs.whiteboard.GreetingWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares writing the JSON greeting of {@code RestfulHello} with Jackson and
+ * with {@link GreetingWriter}.
+ *
+ * <p>
+ * The {@code jackson} benchmark uses the original implementation, which builds
+ * a map for every request and lets the generic JSON provider, i.e., Jackson,
+ * serialize it. Both write to the same reused stream, so that only the
+ * serialization is measured. Run with {@code -prof gc} to compare the
+ * allocation as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GreetingWriterBenchmark {
+
+    private static final Annotation[] ANNOTATIONS = new Annotation[0];
+
+    @Param({ "ascii", "escaped", "unicode" })
+    private String shape;
+
+    private String id;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final GreetingWriter writer = new GreetingWriter();
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+
+    /**
+     * Prepares the name and checks that both implementations agree.
+     *
+     * @throws IOException
+     *             if the serialization fails
+     */
+    @Setup
+    public void setup() throws IOException {
+        id = switch (shape) {
+            case "ascii" -> "john-smith-42";
+            case "escaped" -> "John \"Jack\" Smith\t\\";
+            case "unicode" -> "Jiří Dvořák 😀";
+            default -> throw new IllegalArgumentException("Unknown shape: " + shape);
+        };
+
+        final var expected = mapper.readTree(jackson());
+        final var actual = mapper.readTree(writer());
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(String.format("Expected %s, but got %s.", expected, actual));
+        }
+    }
+
+    /**
+     * @return the greeting written by the original implementation
+     *
+     * @throws IOException
+     *             if the serialization fails
+     */
+    @Benchmark
+    public byte[] jackson() throws IOException {
+        final Map<String, String> result = new HashMap<>();
+        result.put("greeting", "hello");
+        result.put("name", id);
+
+        output.reset();
+        mapper.writeValue(output, result);
+        return output.toByteArray();
+    }
+
+    /**
+     * @return the greeting written by {@link GreetingWriter}
+     *
+     * @throws IOException
+     *             if the serialization fails
+     */
+    @Benchmark
+    public byte[] writer() throws IOException {
+        output.reset();
+        writer.writeTo(new Greeting("hello", id), Greeting.class, Greeting.class, ANNOTATIONS, MediaType.APPLICATION_JSON_TYPE, null, output);
+        return output.toByteArray();
+    }
+}
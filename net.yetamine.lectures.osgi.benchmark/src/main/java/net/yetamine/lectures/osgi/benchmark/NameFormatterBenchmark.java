@@ -0,0 +1,117 @@
+package net.yetamine.lectures.osgi.benchmark;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import net.yetamine.lectures.osgi.demo.ns.config.NameConfiguration;
+import net.yetamine.lectures.osgi.demo.ns.config.NameFormatter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.util.converter.Converters;
+
+/**
+ * Compares formatting names from the configuration with the standard converter
+ * and with {@link NameFormatter}.
+ *
+ * <p>
+ * The {@code converter} benchmark uses the original implementation, which
+ * converts the properties to {@link NameConfiguration} and splits and joins the
+ * words of the name with streams. Run with {@code -prof gc} to compare the
+ * allocation as well. The unit tests of {@link NameFormatter} check that both
+ * implementations agree on the corner cases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameFormatterBenchmark {
+
+    @Param({ "plain", "nick", "long" })
+    private String shape;
+
+    private Dictionary<String, Object> properties;
+
+    /**
+     * Prepares the properties and checks that both implementations agree on
+     * them.
+     */
+    @Setup
+    public void setup() {
+        properties = properties(shape);
+
+        final String expected = converter(properties);
+        final String actual = NameFormatter.format(properties);
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException(String.format("Expected '%s', but got '%s'.", expected, actual));
+        }
+    }
+
+    /**
+     * @return the name formatted by the original implementation
+     */
+    @Benchmark
+    public String converter() {
+        return converter(properties);
+    }
+
+    /**
+     * @return the name formatted by {@link NameFormatter}
+     */
+    @Benchmark
+    public String precompiled() {
+        return NameFormatter.format(properties);
+    }
+
+    private static String converter(Dictionary<String, ?> properties) {
+        final NameConfiguration config = Converters.standardConverter().convert(properties).to(NameConfiguration.class);
+        final String name = config.name();
+        final String nick = config.nick();
+        if (nick.isEmpty()) {
+            return name;
+        }
+
+        final String[] words = name.split(" ");
+        if (words.length < 2) {
+            return name;
+        }
+
+        return Stream.of(
+            Stream.of(words).limit(words.length - 1),   // All names but the last
+            Stream.of('"' + nick + '"'),                // Quoted nick name
+            Stream.of(words[words.length - 1])          // Surname at the end
+        ).flatMap(Function.identity()).collect(Collectors.joining(" "));
+    }
+
+    private static Dictionary<String, Object> properties(String shape) {
+        return switch (shape) {
+            case "plain" -> properties("John Smith", null);
+            case "nick" -> properties("John Smith", "Jack");
+            case "long" -> properties("John Ronald Reuel Tolkien", "Tollers");
+            default -> throw new IllegalArgumentException("Unknown shape: " + shape);
+        };
+    }
+
+    private static Dictionary<String, Object> properties(String name, String nick) {
+        final var result = new Hashtable<String, Object>();
+        result.put("name", name);
+        if (nick != null) {
+            result.put("nick", nick);
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,148 @@
+package net.yetamine.lectures.osgi.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import net.yetamine.lectures.osgi.demo.api.NameSupplier;
+import net.yetamine.lectures.osgi.demo.ns.config.NameSupplierFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.launch.Framework;
+import org.osgi.service.cm.ConfigurationException;
+
+/**
+ * Measures the time to make the given number of factory configurations visible
+ * as {@link NameSupplier} services.
+ *
+ * <p>
+ * Each invocation passes all configurations to a fresh
+ * {@link NameSupplierFactory}, like Configuration Admin does on startup, and
+ * waits until all services get registered. The {@code parallelism} parameter
+ * sets the number of threads that the factory uses for processing the
+ * configurations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NameSupplierFactoryBenchmark {
+
+    @Param({ "1000", "10000", "100000" })
+    private int pids;
+
+    @Param({ "1", "4" })
+    private int parallelism;
+
+    private Framework framework;
+    private BundleContext context;
+    private List<Dictionary<String, ?>> configurations;
+
+    private NameSupplierFactory factory;
+    private ServiceListener listener;
+    private CountDownLatch registered;
+
+    /**
+     * Starts the framework and prepares the configurations.
+     *
+     * @throws BundleException
+     *             if the framework could not start
+     * @throws IOException
+     *             if the framework could not start
+     */
+    @Setup(Level.Trial)
+    public void startFramework() throws BundleException, IOException {
+        framework = EmbeddedFramework.start();
+        context = framework.getBundleContext();
+
+        configurations = new ArrayList<>(pids);
+        for (int i = 0; i < pids; i++) {
+            final var configuration = new Hashtable<String, Object>();
+            configuration.put("name", "John Smith " + i);
+            configuration.put("nick", (i % 2 == 0) ? "Jack" : "");
+            configurations.add(configuration);
+        }
+    }
+
+    /**
+     * Stops the framework.
+     *
+     * @throws BundleException
+     *             if the framework could not stop
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @TearDown(Level.Trial)
+    public void stopFramework() throws BundleException, InterruptedException {
+        EmbeddedFramework.stop(framework);
+    }
+
+    /**
+     * Prepares a fresh factory and the listener counting the registrations.
+     *
+     * @throws InvalidSyntaxException
+     *             if the listener filter is invalid
+     */
+    @Setup(Level.Invocation)
+    public void createFactory() throws InvalidSyntaxException {
+        factory = new NameSupplierFactory(context, parallelism);
+        registered = new CountDownLatch(pids);
+        final CountDownLatch latch = registered;
+        listener = event -> {
+            if (event.getType() == ServiceEvent.REGISTERED) {
+                latch.countDown();
+            }
+        };
+
+        context.addServiceListener(listener, "(objectClass=" + NameSupplier.class.getName() + ")");
+    }
+
+    /**
+     * Unregisters all services of the factory.
+     */
+    @TearDown(Level.Invocation)
+    public void closeFactory() {
+        context.removeServiceListener(listener);
+        factory.close();
+    }
+
+    /**
+     * Passes all configurations and waits for all services.
+     *
+     * @throws ConfigurationException
+     *             if a configuration is invalid
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @Benchmark
+    public void registerAll() throws ConfigurationException, InterruptedException {
+        for (int i = 0; i < configurations.size(); i++) {
+            factory.updated("pid-" + i, configurations.get(i));
+        }
+
+        if (!registered.await(5, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Services not registered in time.");
+        }
+    }
+}
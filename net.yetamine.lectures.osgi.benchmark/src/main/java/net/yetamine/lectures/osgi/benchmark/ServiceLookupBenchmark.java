@@ -0,0 +1,105 @@
+package net.yetamine.lectures.osgi.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import net.yetamine.lectures.osgi.demo.api.NameSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.launch.Framework;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Measures getting a {@link NameSupplier} from the registry with the given
+ * number of registered services.
+ *
+ * <p>
+ * The {@code lookup} benchmark does what the lookup demo does on every use of
+ * the service: it gets the reference, gets the service and ungets it again.
+ * The {@code tracker} benchmark gets the service from an open
+ * {@link ServiceTracker} like the tracker demo does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceLookupBenchmark {
+
+    @Param({ "1", "100", "10000" })
+    private int services;
+
+    private Framework framework;
+    private BundleContext context;
+    private ServiceTracker<NameSupplier, NameSupplier> tracker;
+
+    /**
+     * Starts the framework, registers the services and opens the tracker.
+     *
+     * @throws BundleException
+     *             if the framework could not start
+     * @throws IOException
+     *             if the framework could not start
+     */
+    @Setup
+    public void setup() throws BundleException, IOException {
+        framework = EmbeddedFramework.start();
+        context = framework.getBundleContext();
+        for (int i = 0; i < services; i++) {
+            final String name = "John Smith " + i;
+            context.registerService(NameSupplier.class, () -> name, null);
+        }
+
+        tracker = new ServiceTracker<>(context, NameSupplier.class, null);
+        tracker.open();
+    }
+
+    /**
+     * Closes the tracker and stops the framework.
+     *
+     * @throws BundleException
+     *             if the framework could not stop
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    @TearDown
+    public void tearDown() throws BundleException, InterruptedException {
+        tracker.close();
+        EmbeddedFramework.stop(framework);
+    }
+
+    /**
+     * @return the name from the looked up service
+     */
+    @Benchmark
+    public String lookup() {
+        final ServiceReference<NameSupplier> reference = context.getServiceReference(NameSupplier.class);
+        final NameSupplier service = context.getService(reference);
+        try {
+            return service.name();
+        } finally {
+            context.ungetService(reference);
+        }
+    }
+
+    /**
+     * @return the name from the tracked service
+     */
+    @Benchmark
+    public String tracker() {
+        return tracker.getService().name();
+    }
+}
@@ -0,0 +1,178 @@
+package net.yetamine.lectures.osgi.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import net.yetamine.lectures.osgi.demo.api.NameSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.launch.Framework;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Measures registering and unregistering a {@link NameSupplier} with the given
+ * number of registered services and the given consumer of the services.
+ *
+ * <p>
+ * Each invocation registers a service, waits until the consumer gets it, then
+ * unregisters the service and waits until the consumer releases it. With no
+ * consumer, the benchmark measures just the registry. With the consumers, the
+ * difference from that shows the latency of delivering the service to a
+ * {@link ServiceTracker} customizer, or binding it to a Declarative Services
+ * component with a dynamic greedy reference to multiple services.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceRegistrationBenchmark {
+
+    private static final long TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    @Param({ "1", "100", "10000" })
+    private int services;
+
+    @Param({ "none", "tracker", "component" })
+    private String consumer;
+
+    private final NameSupplier supplier = () -> "John Doe";
+
+    private Framework framework;
+    private BundleContext context;
+    private ServiceTracker<NameSupplier, NameSupplier> tracker;
+    private ComponentRuntime runtime;
+    private LongSupplier added;
+    private LongSupplier removed;
+
+    /**
+     * Starts the framework, registers the services and starts the consumer.
+     *
+     * @throws Exception
+     *             if the setup fails
+     */
+    @Setup
+    public void setup() throws Exception {
+        framework = EmbeddedFramework.start(List.of(
+            NameSupplier.class.getPackageName() + ";version=1.1.0",
+            CountingComponent.class.getPackageName()));
+
+        context = framework.getBundleContext();
+        for (int i = 0; i < services; i++) {
+            final String name = "John Smith " + i;
+            context.registerService(NameSupplier.class, () -> name, null);
+        }
+
+        switch (consumer) {
+            case "none":
+                break;
+
+            case "tracker":
+                final var adding = new AtomicLong();
+                final var removing = new AtomicLong();
+                tracker = new ServiceTracker<>(context, NameSupplier.class, null) {
+
+                    @Override
+                    public NameSupplier addingService(ServiceReference<NameSupplier> reference) {
+                        adding.incrementAndGet();
+                        return super.addingService(reference);
+                    }
+
+                    @Override
+                    public void removedService(ServiceReference<NameSupplier> reference, NameSupplier service) {
+                        removing.incrementAndGet();
+                        super.removedService(reference, service);
+                    }
+                };
+
+                tracker.open();
+                added = adding::get;
+                removed = removing::get;
+                break;
+
+            case "component":
+                final long bound = CountingComponent.bound();
+                runtime = new ComponentRuntime(context);
+                runtime.start();
+                runtime.install("counting", CountingComponent.DESCRIPTION, String.join(",",
+                    NameSupplier.class.getPackageName(),
+                    CountingComponent.class.getPackageName()));
+
+                added = CountingComponent::bound;
+                removed = CountingComponent::unbound;
+                await(added, bound + services); // Wait for the activation
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown consumer: " + consumer);
+        }
+    }
+
+    /**
+     * Stops the consumer and the framework.
+     *
+     * @throws Exception
+     *             if the tear-down fails
+     */
+    @TearDown
+    public void tearDown() throws Exception {
+        if (tracker != null) {
+            tracker.close();
+        }
+
+        if (runtime != null) {
+            runtime.stop();
+        }
+
+        EmbeddedFramework.stop(framework);
+    }
+
+    /**
+     * Registers and unregisters a service, waiting for the consumer.
+     */
+    @Benchmark
+    public void registerAndUnregister() {
+        if (added == null) {
+            context.registerService(NameSupplier.class, supplier, null).unregister();
+            return;
+        }
+
+        final long adding = added.getAsLong() + 1;
+        final long removing = removed.getAsLong() + 1;
+        final var registration = context.registerService(NameSupplier.class, supplier, null);
+        await(added, adding);
+        registration.unregister();
+        await(removed, removing);
+    }
+
+    private static void await(LongSupplier counter, long expected) {
+        // The consumers usually get the events synchronously, so there is
+        // nothing to wait for, but let's not depend on it
+        if (counter.getAsLong() >= expected) {
+            return;
+        }
+
+        final long deadline = System.nanoTime() + TIMEOUT;
+        while (counter.getAsLong() < expected) {
+            if (System.nanoTime() - deadline >= 0) {
+                throw new IllegalStateException("The consumer did not get the service in time.");
+            }
+
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Contains JMH benchmarks of the demo code running in an embedded framework.
+ */
+package net.yetamine.lectures.osgi.benchmark;
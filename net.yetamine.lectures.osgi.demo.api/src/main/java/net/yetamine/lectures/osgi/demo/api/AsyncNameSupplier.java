@@ -0,0 +1,26 @@
+package net.yetamine.lectures.osgi.demo.api;
+
+import java.util.concurrent.CompletionStage;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * An asynchronous name supplier.
+ *
+ * <p>
+ * This is a non-blocking counterpart of {@link NameSupplier} for providers
+ * that need some time to get a name, e.g., from a remote system. Consumers may
+ * request names from many suppliers at once and combine the results without
+ * blocking the calling thread.
+ *
+ * @since 1.1.0
+ */
+@ProviderType
+@FunctionalInterface
+public interface AsyncNameSupplier {
+
+    /**
+     * @return a stage completing with a name, never an empty string or
+     *         {@code null}, or failing if the name could not be provided
+     */
+    CompletionStage<String> name();
+}
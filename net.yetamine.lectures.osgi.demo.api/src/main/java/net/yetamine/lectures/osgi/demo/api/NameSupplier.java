@@ -1,9 +1,19 @@
 package net.yetamine.lectures.osgi.demo.api;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
 import org.osgi.annotation.versioning.ProviderType;
 
 /**
  * A name supplier.
+ *
+ * <p>
+ * Besides {@link #name()}, which provides a single name, the interface offers
+ * {@link #names(int)} for getting multiple names in a single call and
+ * {@link #names()} for consuming the names lazily. The default implementations
+ * rely on {@link #name()}, so that they work for any implementation, while
+ * implementations with a cheaper way to provide many names may override them.
  */
 @ProviderType
 @FunctionalInterface
@@ -13,4 +23,43 @@ public interface NameSupplier {
      * @return a name, never an empty string or {@code null}
      */
     String name();
+
+    /**
+     * Returns the given number of names.
+     *
+     * @param count
+     *            the number of names to return. It must not be negative.
+     *
+     * @return the list of names, never {@code null}; the list may be
+     *         unmodifiable
+     *
+     * @since 1.1.0
+     */
+    default List<String> names(int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Count must not be negative.");
+        }
+
+        final List<String> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(name());
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns a stream of names.
+     *
+     * <p>
+     * The stream is sequential and possibly infinite, hence the caller should
+     * limit it. Names are supplied lazily as the stream is consumed.
+     *
+     * @return the stream of names, never {@code null}
+     *
+     * @since 1.1.0
+     */
+    default Stream<String> names() {
+        return Stream.generate(this::name);
+    }
 }
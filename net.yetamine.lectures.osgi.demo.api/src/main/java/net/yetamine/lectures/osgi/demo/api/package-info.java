@@ -1,7 +1,7 @@
 /**
  * The API for the demo project.
  */
-@org.osgi.annotation.versioning.Version("1.0.0")
+@org.osgi.annotation.versioning.Version("1.1.0")
 package net.yetamine.lectures.osgi.demo.api;
 
 /* Notes:
@@ -3,12 +3,20 @@ package net.yetamine.lectures.osgi.demo.cdi.consumer;
 import javax.enterprise.context.ApplicationScoped;
 import javax.enterprise.context.Initialized;
 import javax.enterprise.event.Observes;
+import javax.enterprise.event.ObservesAsync;
 import javax.inject.Inject;
 import net.yetamine.lectures.osgi.demo.api.NameSupplier;
+import org.osgi.framework.Constants;
 import org.osgi.service.cdi.annotations.Reference;
 
 /**
  * Tells hello using a {@link NameSupplier}.
+ *
+ * <p>
+ * Besides the static reference, which the container injects before the bean
+ * starts, the bean observes the changes of all {@link NameSupplier} services
+ * asynchronously, so that it does not block the container or the framework
+ * even if it would take long.
  */
 @ApplicationScoped
 public class ConsumerBean {
@@ -20,4 +28,26 @@ public class ConsumerBean {
     public void onStart(@Observes @Initialized(ApplicationScoped.class) Object start) {
         System.out.println("[CDI] Hello " + service.name());
     }
+
+    public void onChanges(@ObservesAsync NameSupplierEventBatch batch) {
+        for (NameSupplierEvent event : batch.events()) {
+            switch (event.type()) {
+                case ARRIVED:
+                    System.out.println("[CDI] Welcome " + event.service().name());
+                    break;
+
+                case MODIFIED:
+                    System.out.println("[CDI] Still with " + event.service().name());
+                    break;
+
+                case DEPARTED:
+                    // The service is gone, do not use it anymore
+                    System.out.println("[CDI] Farewell to service " + event.reference().getProperty(Constants.SERVICE_ID));
+                    break;
+
+                default:
+                    break;
+            }
+        }
+    }
 }
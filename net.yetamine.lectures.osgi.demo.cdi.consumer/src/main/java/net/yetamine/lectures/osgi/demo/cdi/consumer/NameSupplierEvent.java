@@ -0,0 +1,78 @@
+package net.yetamine.lectures.osgi.demo.cdi.consumer;
+
+import java.util.Objects;
+import net.yetamine.lectures.osgi.demo.api.NameSupplier;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Describes a change of a {@link NameSupplier} service.
+ *
+ * <p>
+ * The events are delivered asynchronously, hence the service may be gone when
+ * an observer gets the event. Observers should not use the service of a
+ * {@link Type#DEPARTED} event, and they should be prepared that any other
+ * service might fail as well.
+ *
+ * @param type
+ *            the type of the change
+ * @param reference
+ *            the reference of the service
+ * @param service
+ *            the service
+ */
+public record NameSupplierEvent(Type type, ServiceReference<NameSupplier> reference, NameSupplier service) {
+
+    /**
+     * Creates a new instance.
+     *
+     * @param type
+     *            the type of the change. It must not be {@code null}.
+     * @param reference
+     *            the reference of the service. It must not be {@code null}.
+     * @param service
+     *            the service. It must not be {@code null}.
+     */
+    public NameSupplierEvent {
+        Objects.requireNonNull(type);
+        Objects.requireNonNull(reference);
+        Objects.requireNonNull(service);
+    }
+
+    /**
+     * Combines this event with a later event of the same service.
+     *
+     * @param next
+     *            the later event. It must not be {@code null}.
+     *
+     * @return the combined event, or {@code null} if the events cancel each
+     *         other, i.e., the service arrived and departed meanwhile
+     */
+    NameSupplierEvent coalesce(NameSupplierEvent next) {
+        if (type != Type.ARRIVED) {
+            return next; // The latest state is all that matters
+        }
+
+        return (next.type() == Type.DEPARTED) ? null : new NameSupplierEvent(Type.ARRIVED, next.reference(), next.service());
+    }
+
+    /**
+     * Type of the change.
+     */
+    public enum Type {
+
+        /**
+         * The service has been registered.
+         */
+        ARRIVED,
+
+        /**
+         * The properties of the service have been modified.
+         */
+        MODIFIED,
+
+        /**
+         * The service has been unregistered.
+         */
+        DEPARTED
+    }
+}
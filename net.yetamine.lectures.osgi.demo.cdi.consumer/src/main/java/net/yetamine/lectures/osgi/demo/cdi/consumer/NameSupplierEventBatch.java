@@ -0,0 +1,28 @@
+package net.yetamine.lectures.osgi.demo.cdi.consumer;
+
+import java.util.List;
+
+/**
+ * Carries the changes of {@link net.yetamine.lectures.osgi.demo.api.NameSupplier}
+ * services to the asynchronous observers.
+ *
+ * <p>
+ * A batch contains at most one event for a service, which describes the change
+ * since the previous batch, and the events are in the order of the first change
+ * of each service.
+ *
+ * @param events
+ *            the events of the batch
+ */
+public record NameSupplierEventBatch(List<NameSupplierEvent> events) {
+
+    /**
+     * Creates a new instance.
+     *
+     * @param events
+     *            the events of the batch. It must not be {@code null}.
+     */
+    public NameSupplierEventBatch {
+        events = List.copyOf(events);
+    }
+}
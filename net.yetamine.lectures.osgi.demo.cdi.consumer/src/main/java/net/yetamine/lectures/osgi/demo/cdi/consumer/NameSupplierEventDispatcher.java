@@ -0,0 +1,200 @@
+package net.yetamine.lectures.osgi.demo.cdi.consumer;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.NotificationOptions;
+import javax.enterprise.event.Observes;
+import javax.enterprise.event.ObservesAsync;
+import javax.inject.Inject;
+import net.yetamine.lectures.osgi.demo.api.NameSupplier;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.cdi.annotations.ComponentProperties;
+import org.osgi.service.cdi.reference.BindServiceReference;
+
+/**
+ * Fires the changes of {@link NameSupplier} services as asynchronous events,
+ * which the beans may get with {@link ObservesAsync}.
+ *
+ * <p>
+ * The service callbacks just record the change and return, so that neither
+ * the container nor the framework waits for the observers. The changes are
+ * delivered in batches on a dedicated executor and there is at most one batch
+ * in flight. While the observers process a batch, the next changes accumulate
+ * and the changes of the same service are coalesced, so that slow observers
+ * get fewer events rather than a growing backlog. When the observers fail, the
+ * failure goes to the uncaught exception handler of the dispatching thread,
+ * like any other exception escaping from a thread. Closing the dispatcher
+ * drops the pending changes and stops the flushing.
+ *
+ * <p>
+ * The container configuration may set following properties:
+ *
+ * <ul>
+ * <li>{@code events.threads}: the number of threads for the observers (1 by
+ * default).</li>
+ * <li>{@code events.batch}: the maximal number of events in a batch (64 by
+ * default).</li>
+ * <li>{@code events.linger}: the time in milliseconds to wait for more changes
+ * before firing a batch (10 by default).</li>
+ * </ul>
+ */
+@ApplicationScoped
+public class NameSupplierEventDispatcher {
+
+    @Inject
+    private Event<NameSupplierEventBatch> events;
+
+    @Inject
+    @ComponentProperties
+    private Map<String, Object> properties;
+
+    // Guarded by this
+    private final Map<Long, NameSupplierEvent> pending = new LinkedHashMap<>();
+    private boolean flushing;
+    private boolean closed;
+
+    private ExecutorService executor;
+    private int batchSize;
+    private long linger;
+
+    /**
+     * Creates a new instance.
+     */
+    public NameSupplierEventDispatcher() {
+        // Default constructor
+    }
+
+    @Inject
+    void bind(BindServiceReference<NameSupplier> binder) {
+        final int threads = number("events.threads", 1, 1);
+        batchSize = number("events.batch", 64, 1);
+        linger = number("events.linger", 10, 0);
+
+        final var counter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, r -> {
+            final var thread = new Thread(r, "NameSupplierEvents-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        binder.adding((reference, service) -> offer(new NameSupplierEvent(NameSupplierEvent.Type.ARRIVED, reference, service)))
+            .modified((reference, service) -> offer(new NameSupplierEvent(NameSupplierEvent.Type.MODIFIED, reference, service)))
+            .removed((reference, service) -> offer(new NameSupplierEvent(NameSupplierEvent.Type.DEPARTED, reference, service)))
+            .bind();
+    }
+
+    void onStart(@Observes @Initialized(ApplicationScoped.class) Object start) {
+        // Just make the container create the bean eagerly, so that it binds the services
+    }
+
+    @PreDestroy
+    void close() {
+        synchronized (this) {
+            closed = true;
+            pending.clear();
+        }
+
+        executor.shutdown();
+    }
+
+    private void offer(NameSupplierEvent event) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            pending.compute(id(event.reference()), (id, previous) -> (previous != null) ? previous.coalesce(event) : event);
+            if (flushing) {
+                return; // The flushing continues with the next batch
+            }
+
+            flushing = true;
+        }
+
+        CompletableFuture.delayedExecutor(linger, TimeUnit.MILLISECONDS).execute(this::submit);
+    }
+
+    private void submit() {
+        synchronized (this) {
+            if (closed) {
+                flushing = false;
+                return;
+            }
+        }
+
+        try {
+            executor.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            stopFlushing(); // Closed meanwhile
+        }
+    }
+
+    private synchronized void stopFlushing() {
+        flushing = false;
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void flush() {
+        final var batch = new ArrayList<NameSupplierEvent>();
+        synchronized (this) {
+            final Iterator<NameSupplierEvent> it = pending.values().iterator();
+            while (it.hasNext() && (batch.size() < batchSize)) {
+                batch.add(it.next());
+                it.remove();
+            }
+
+            if (batch.isEmpty() || closed) {
+                flushing = false;
+                return;
+            }
+        }
+
+        final CompletionStage<NameSupplierEventBatch> delivery;
+        try {
+            delivery = events.fireAsync(new NameSupplierEventBatch(batch), NotificationOptions.ofExecutor(executor));
+        } catch (RejectedExecutionException e) {
+            stopFlushing(); // Closed meanwhile
+            return;
+        }
+
+        delivery.whenComplete((result, e) -> {
+            if ((e != null) && !isClosed()) { // A rejection after closing is no failure
+                final Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+            }
+
+            flush(); // Fire the changes that came meanwhile
+        });
+    }
+
+    private int number(String name, int defaultValue, int minimum) {
+        final Object value = properties.get(name);
+        final int result = (value != null) ? Integer.parseInt(value.toString()) : defaultValue;
+        if (result < minimum) {
+            throw new IllegalArgumentException("Property " + name + " must be at least " + minimum + ".");
+        }
+
+        return result;
+    }
+
+    private static Long id(ServiceReference<?> reference) {
+        return (Long) reference.getProperty(Constants.SERVICE_ID);
+    }
+}
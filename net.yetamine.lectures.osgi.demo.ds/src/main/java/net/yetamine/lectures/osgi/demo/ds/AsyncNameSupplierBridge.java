@@ -0,0 +1,163 @@
+package net.yetamine.lectures.osgi.demo.ds;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import net.yetamine.lectures.osgi.demo.api.AsyncNameSupplier;
+import net.yetamine.lectures.osgi.demo.api.NameSupplier;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+
+/**
+ * Publishes an {@link AsyncNameSupplier} for every {@link NameSupplier}.
+ *
+ * <p>
+ * The asynchronous view invokes the blocking supplier in a virtual thread, so
+ * that consumers may request names from many suppliers without blocking their
+ * own threads, e.g., the threads dispatching framework events. The view has
+ * the same service properties as the original service, except for the
+ * framework-defined and component-specific ones, and it has the
+ * {@code name.supplier.id} property with the identifier of the original
+ * service.
+ *
+ * <p>
+ * The registry dispatches service events synchronously, therefore the bridge
+ * holds its lock only for updating its own state and it calls the registry
+ * outside the lock. After deactivation, the views fail their requests.
+ */
+@Component(immediate = true)
+public final class AsyncNameSupplierBridge {
+
+    private static final String SUPPLIER_ID = "name.supplier.id";
+
+    private static final Set<String> FRAMEWORK_PROPERTIES = Set.of(
+        Constants.OBJECTCLASS,
+        Constants.SERVICE_ID,
+        Constants.SERVICE_BUNDLEID,
+        Constants.SERVICE_SCOPE,
+        Constants.SERVICE_PID,
+        "component.id",
+        "component.name");
+
+    private final BundleContext context;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<Long, ServiceRegistration<AsyncNameSupplier>> registrations = new HashMap<>();
+    private boolean active = true;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param givenContext
+     *            the context of the bundle. It must not be {@code null}.
+     */
+    @Activate
+    public AsyncNameSupplierBridge(BundleContext givenContext) {
+        context = givenContext;
+    }
+
+    // Methods for binding references
+
+    @Reference(name = "names",
+        cardinality = ReferenceCardinality.MULTIPLE,
+        policy = ReferencePolicy.DYNAMIC,
+        policyOption = ReferencePolicyOption.GREEDY)
+    void bindSupplier(NameSupplier supplier, Map<String, ?> properties) {
+        synchronized (this) {
+            if (!active) {
+                return;
+            }
+        }
+
+        final AsyncNameSupplier view = () -> supply(supplier);
+        final var registration = context.registerService(AsyncNameSupplier.class, view, bridged(properties));
+        synchronized (this) {
+            if (active) { // Unbinding the same service comes after binding it
+                registrations.put(serviceId(properties), registration);
+                return;
+            }
+        }
+
+        registration.unregister(); // Deactivated meanwhile
+    }
+
+    void updatedSupplier(NameSupplier supplier, Map<String, ?> properties) {
+        final ServiceRegistration<AsyncNameSupplier> registration;
+        synchronized (this) {
+            registration = registrations.get(serviceId(properties));
+        }
+
+        if (registration != null) {
+            try {
+                registration.setProperties(bridged(properties));
+            } catch (IllegalStateException e) {
+                // Unregistered meanwhile
+            }
+        }
+    }
+
+    void unbindSupplier(NameSupplier supplier, Map<String, ?> properties) {
+        final ServiceRegistration<AsyncNameSupplier> registration;
+        synchronized (this) {
+            registration = registrations.remove(serviceId(properties));
+        }
+
+        if (registration != null) {
+            registration.unregister();
+        }
+    }
+
+    // Component lifecycle methods
+
+    @Deactivate
+    void deactivate() {
+        final List<ServiceRegistration<AsyncNameSupplier>> unregistering;
+        synchronized (this) {
+            active = false;
+            unregistering = new ArrayList<>(registrations.values());
+            registrations.clear();
+        }
+
+        unregistering.forEach(ServiceRegistration::unregister);
+        executor.shutdownNow();
+    }
+
+    private CompletionStage<String> supply(NameSupplier supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier::name, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedStage(new IllegalStateException("Deactivated already.", e));
+        }
+    }
+
+    private static Long serviceId(Map<String, ?> properties) {
+        return (Long) properties.get(Constants.SERVICE_ID);
+    }
+
+    private static Hashtable<String, Object> bridged(Map<String, ?> properties) {
+        final var result = new Hashtable<String, Object>();
+        properties.forEach((k, v) -> {
+            if (!FRAMEWORK_PROPERTIES.contains(k)) {
+                result.put(k, v);
+            }
+        });
+
+        result.put(SUPPLIER_ID, properties.get(Constants.SERVICE_ID));
+        return result;
+    }
+}
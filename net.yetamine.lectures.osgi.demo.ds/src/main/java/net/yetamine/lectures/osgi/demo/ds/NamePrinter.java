@@ -2,8 +2,19 @@ package net.yetamine.lectures.osgi.demo.ds;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import net.yetamine.lectures.osgi.demo.api.NameSupplier;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.osgi.service.component.annotations.ReferenceCardinality;
 import org.osgi.service.component.annotations.ReferencePolicy;
@@ -14,11 +25,24 @@ import org.osgi.service.component.annotations.ReferencePolicyOption;
  * all suppliers matching the reference's target (or all if the target is not
  * specified) and reacts on all changes using the dynamic and greedy policies.
  * The component is immediate, hence starts as soon as possible.
+ *
+ * <p>
+ * The bound suppliers are kept in a copy-on-write list, so that the binding
+ * methods need no locking and the readers may iterate over the suppliers while
+ * the bindings change. The {@link #broadcast(long, TimeUnit)} method queries
+ * all suppliers in parallel, hence the slowest supplier, or the timeout, rather
+ * than the sum of all suppliers determines how long it takes. The queries that
+ * do not finish in time get cancelled, so that they do not keep running. The
+ * initial broadcast runs asynchronously, so that it does not delay the
+ * activation.
  */
 @Component(immediate = true)
 public final class NamePrinter {
 
-    private final Collection<NameSupplier> suppliers = new ArrayList<>();
+    private static final long TIMEOUT = 1000; // Milliseconds
+
+    private final Collection<NameSupplier> suppliers = new CopyOnWriteArrayList<>();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
 
     /**
      * Creates a new instance.
@@ -27,19 +51,76 @@ public final class NamePrinter {
         // Default constructor
     }
 
+    /**
+     * Gets the names from all bound suppliers in parallel.
+     *
+     * @param timeout
+     *            the time to wait for each supplier
+     * @param unit
+     *            the unit of the timeout. It must not be {@code null}.
+     *
+     * @return the names of the suppliers that provided a name in time, in the
+     *         order of binding the suppliers; an empty list after deactivation
+     */
+    public List<String> broadcast(long timeout, TimeUnit unit) {
+        final var requests = new ArrayList<Future<String>>();
+        try {
+            for (NameSupplier supplier : suppliers) {
+                requests.add(executor.submit(supplier::name));
+            }
+        } catch (RejectedExecutionException e) {
+            requests.forEach(request -> request.cancel(true));
+            return List.of(); // Deactivated already
+        }
+
+        // All requests run since now, so they share the deadline
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final var result = new ArrayList<String>(requests.size());
+        for (Future<String> request : requests) {
+            try {
+                final String name = request.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (name != null) {
+                    result.add(name);
+                }
+            } catch (ExecutionException e) {
+                // Skip the failed supplier
+            } catch (TimeoutException e) {
+                request.cancel(true);
+            } catch (InterruptedException e) {
+                requests.forEach(pending -> pending.cancel(true));
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        return result;
+    }
+
     // Methods for binding references
 
     @Reference(name = "names",
         cardinality = ReferenceCardinality.MULTIPLE,
         policy = ReferencePolicy.DYNAMIC,
         policyOption = ReferencePolicyOption.GREEDY)
-    synchronized void bindSupplier(NameSupplier supplier) {
+    void bindSupplier(NameSupplier supplier) {
         suppliers.add(supplier);
         System.out.println("[DS] Hello " + supplier.name());
     }
 
-    synchronized void unbindSupplier(NameSupplier supplier) {
+    void unbindSupplier(NameSupplier supplier) {
         suppliers.remove(supplier);
         System.out.println("[DS] Bye " + supplier.name());
     }
+
+    // Component lifecycle methods
+
+    @Activate
+    void activate() {
+        executor.execute(() -> System.out.println("[DS] Hello everybody: " + broadcast(TIMEOUT, TimeUnit.MILLISECONDS)));
+    }
+
+    @Deactivate
+    void deactivate() {
+        executor.shutdownNow();
+    }
 }
@@ -3,7 +3,6 @@ package net.yetamine.lectures.osgi.demo.lookup;
 import net.yetamine.lectures.osgi.demo.api.NameSupplier;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
-import org.osgi.framework.ServiceReference;
 
 /**
  * Uses direct service lookup for greeting the most preferred
@@ -11,6 +10,8 @@ import org.osgi.framework.ServiceReference;
  */
 public final class Activator implements BundleActivator {
 
+    private CachedLookup<NameSupplier> nameSupplier;
+
     /**
      * Creates a new instance.
      */
@@ -24,7 +25,9 @@ public final class Activator implements BundleActivator {
     @Override
     public void start(BundleContext context) throws Exception {
         System.out.println("Starting " + context.getBundle());
-        say("Hello", context);
+        nameSupplier = new CachedLookup<>(context, NameSupplier.class);
+        nameSupplier.open();
+        say("Hello");
     }
 
     /**
@@ -33,26 +36,16 @@ public final class Activator implements BundleActivator {
     @Override
     public void stop(BundleContext context) throws Exception {
         System.out.println("Stopping " + context.getBundle());
-        say("Bye", context);
+        say("Bye");
+        nameSupplier.close();
     }
 
-    private static void say(String greeting, BundleContext context) {
-        // Be careful, basically anything may return null and even when a step
-        // succeeds, the next one may fail as something changes meanwhile
-        final ServiceReference<NameSupplier> reference = context.getServiceReference(NameSupplier.class);
-        if (reference == null) {
-            return;
-        }
-
-        final NameSupplier service = context.getService(reference);
-        if (service == null) {
-            return;
-        }
-
-        try {
+    private void say(String greeting) {
+        // The lookup keeps the service, so that repeated calls are cheap, and
+        // releases it when it disappears or a better service appears
+        final NameSupplier service = nameSupplier.get();
+        if (service != null) {
             System.out.println("[Lookup] " + greeting + " " + service.name());
-        } finally {
-            context.ungetService(reference); // Balance the service usage counter!
         }
     }
 }
@@ -0,0 +1,195 @@
+package net.yetamine.lectures.osgi.demo.lookup;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+
+/**
+ * Looks up the most preferred service of the given type and keeps it until it
+ * disappears or another service outranks it.
+ *
+ * <p>
+ * The direct lookup, i.e., getting the reference, getting the service and
+ * ungetting it again, searches the registry and updates the usage counter on
+ * every invocation. This lookup resolves the service on the first use and
+ * keeps it, hence the subsequent lookups cost just a volatile read. A service
+ * listener drops the kept service when its reference is unregistered, stops
+ * matching or gets modified, or when a service with a higher ranking appears,
+ * so that the next lookup resolves the service again.
+ *
+ * <p>
+ * Every service event increments the generation of the lookup, even when no
+ * service is kept. When the generation changes while resolving the service,
+ * the resolved service might be stale already, so the lookup releases it and
+ * tries again. The generation is checked once more after keeping the service,
+ * because an event arriving just before that might still see no service to
+ * drop. If the services keep changing, the lookup gives up and returns no
+ * service, because it must not return a service that it released already.
+ *
+ * <p>
+ * The lookup must be opened before the first use and it should be closed when
+ * not needed anymore, so that it releases the kept service.
+ *
+ * @param <S>
+ *            the type of the service
+ */
+final class CachedLookup<S> implements ServiceListener {
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    private final BundleContext context;
+    private final Class<S> type;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Binding<S> binding;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param givenContext
+     *            the context to use. It must not be {@code null}.
+     * @param givenType
+     *            the type of the service. It must not be {@code null}.
+     */
+    CachedLookup(BundleContext givenContext, Class<S> givenType) {
+        context = Objects.requireNonNull(givenContext);
+        type = Objects.requireNonNull(givenType);
+    }
+
+    /**
+     * Starts listening to the service changes.
+     */
+    void open() {
+        try {
+            context.addServiceListener(this, "(objectClass=" + type.getName() + ")");
+        } catch (InvalidSyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * Stops listening to the service changes and releases the kept service.
+     */
+    void close() {
+        context.removeServiceListener(this);
+        generation.incrementAndGet();
+        invalidate(null);
+    }
+
+    /**
+     * Returns the most preferred service.
+     *
+     * @return the service, or {@code null} if no service is available
+     */
+    S get() {
+        final Binding<S> current = binding;
+        return (current != null) ? current.service() : resolve();
+    }
+
+    /**
+     * @see org.osgi.framework.ServiceListener#serviceChanged(org.osgi.framework.ServiceEvent)
+     */
+    @Override
+    public void serviceChanged(ServiceEvent event) {
+        generation.incrementAndGet(); // Let the resolution in progress know
+        final Binding<S> current = binding;
+        if (current == null) {
+            return; // Nothing to invalidate
+        }
+
+        final ServiceReference<?> reference = event.getServiceReference();
+        switch (event.getType()) {
+            case ServiceEvent.REGISTERED:
+                if (reference.compareTo(current.reference()) > 0) {
+                    invalidate(current); // Outranked by the new service
+                }
+
+                break;
+
+            case ServiceEvent.MODIFIED:
+                if (reference.equals(current.reference()) || (reference.compareTo(current.reference()) > 0)) {
+                    invalidate(current); // The ranking might change
+                }
+
+                break;
+
+            case ServiceEvent.UNREGISTERING:
+            case ServiceEvent.MODIFIED_ENDMATCH:
+                if (reference.equals(current.reference())) {
+                    invalidate(current);
+                }
+
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    private synchronized S resolve() {
+        final Binding<S> current = binding;
+        if (current != null) {
+            return current.service(); // Resolved meanwhile
+        }
+
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            final long expected = generation.get();
+
+            // Be careful, basically anything may return null and even when a step
+            // succeeds, the next one may fail as something changes meanwhile
+            final ServiceReference<S> reference = context.getServiceReference(type);
+            if (reference == null) {
+                return null;
+            }
+
+            final S service = context.getService(reference);
+            if (service == null) {
+                return null;
+            }
+
+            if (generation.get() == expected) {
+                final var resolved = new Binding<>(reference, service);
+                binding = resolved;
+
+                // An event between the check and publishing the binding could
+                // see no binding to invalidate, hence check again afterwards
+                if (generation.get() == expected) {
+                    return service;
+                }
+
+                invalidate(resolved);
+                continue;
+            }
+
+            // An event might have been missed, the service is not safe to keep
+            context.ungetService(reference);
+        }
+
+        return null; // Released already, so not safe to return either
+    }
+
+    private synchronized void invalidate(Binding<S> expected) {
+        final Binding<S> current = binding;
+        if ((current == null) || ((expected != null) && (current != expected))) {
+            return; // Invalidated already
+        }
+
+        binding = null;
+        context.ungetService(current.reference()); // Balance the service usage counter!
+    }
+
+    /**
+     * Binds a service to its reference.
+     *
+     * @param <S>
+     *            the type of the service
+     * @param reference
+     *            the reference of the service
+     * @param service
+     *            the service
+     */
+    private record Binding<S>(ServiceReference<S> reference, S service) {}
+}
@@ -0,0 +1,90 @@
+package net.yetamine.lectures.osgi.demo.ns.config;
+
+import java.util.Dictionary;
+import org.osgi.util.converter.ConversionException;
+import org.osgi.util.converter.Converter;
+import org.osgi.util.converter.Converters;
+
+/**
+ * Formats names from configuration properties described by
+ * {@link NameConfiguration}.
+ *
+ * <p>
+ * Converting the properties to {@link NameConfiguration} with a
+ * {@link Converter} creates a reflective proxy on every invocation. This class
+ * reads the properties directly instead and falls back to the standard
+ * converter only for values that are not strings, so that the results are the
+ * same, including the exception for a missing name. The nick name is inserted
+ * before the surname without splitting and joining all the words.
+ */
+public final class NameFormatter {
+
+    private static final Converter CONVERTER = Converters.standardConverter();
+
+    private NameFormatter() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Formats the name from the configuration properties.
+     *
+     * @param properties
+     *            the properties to use. It must not be {@code null}.
+     *
+     * @return the formatted name
+     *
+     * @throws ConversionException
+     *             if the name is missing or could not be converted
+     */
+    public static String format(Dictionary<String, ?> properties) {
+        final Object name = properties.get("name");
+        if (name == null) {
+            throw new ConversionException("No value for property: name");
+        }
+
+        final Object nick = properties.get("nick");
+        return format(string(name), (nick != null) ? string(nick) : "");
+    }
+
+    /**
+     * Formats the name, inserting the quoted nick name before the last word of
+     * the name, i.e., the surname. When the nick name is empty or the name has
+     * just a single word, the result is the name itself.
+     *
+     * @param name
+     *            the name. It must not be {@code null}.
+     * @param nick
+     *            the nick name. It may be {@code null}, which is the same as an
+     *            empty nick name.
+     *
+     * @return the formatted name
+     */
+    public static String format(String name, String nick) {
+        if ((nick == null) || nick.isEmpty()) {
+            return name;
+        }
+
+        // Trailing spaces do not separate words
+        int end = name.length();
+        while ((end > 0) && (name.charAt(end - 1) == ' ')) {
+            --end;
+        }
+
+        final int last = name.lastIndexOf(' ', end - 1);
+        if (last < 0) {
+            return name;
+        }
+
+        return new StringBuilder(end + nick.length() + 4)
+            .append(name, 0, last)
+            .append(" \"")
+            .append(nick)
+            .append("\" ")
+            .append(name, last + 1, end)
+            .toString();
+    }
+
+    private static String string(Object value) {
+        return (value instanceof String result) ? result : CONVERTER.convert(value).to(String.class);
+    }
+}
@@ -1,27 +1,62 @@
 package net.yetamine.lectures.osgi.demo.ns.config;
 
 import java.util.Dictionary;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Hashtable;
 import java.util.Objects;
-import java.util.function.Function;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import net.yetamine.lectures.osgi.demo.api.NameSupplier;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.cm.ConfigurationException;
 import org.osgi.service.cm.ManagedServiceFactory;
-import org.osgi.util.converter.Converters;
+import org.osgi.util.converter.ConversionException;
 
 /**
  * Creates and registers {@link NameSupplier} instances with different
  * parameters provided by configuration objects.
+ *
+ * <p>
+ * The services carry the {@code name} property with the supplied name and the
+ * {@code service.pid} property with the PID of the configuration. When a
+ * configuration changes, the factory updates the existing service in place, so
+ * that the consumers get a single {@code MODIFIED} event rather than losing the
+ * service and getting a new one. When the name does not change, the update
+ * does nothing at all. When a configuration has no valid name, the factory
+ * removes the service of the configuration, so that no stale name remains,
+ * and reports the problem with {@link ConfigurationException}.
+ *
+ * <p>
+ * The factory converts the configuration when receiving it, which is cheap,
+ * and applies the changes asynchronously, so that the caller does not wait
+ * for the service registry. Each PID has its own state with its own lock, and a few
+ * worker threads process the pending changes; a worker takes a bounded number
+ * of changes before yielding its thread. The registry has no bulk operation,
+ * so each change still means a call to the registry of its own. Repeated
+ * changes of the same PID that are still pending are coalesced, hence only
+ * the latest configuration gets applied. The registry dispatches the service
+ * events synchronously, therefore the lock of a PID guards just its state and
+ * the registry is called outside the lock, while the pending change keeps the
+ * PID with a single worker.
  */
 public final class NameSupplierFactory implements ManagedServiceFactory, AutoCloseable {
 
+    private static final int BATCH_SIZE = 256;
+
     private final BundleContext context;
-    private final Map<String, ServiceRegistration<?>> registrations = new HashMap<>();
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> changes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger workers = new AtomicInteger();
+    private final ExecutorService executor;
+    private final int parallelism;
+    private volatile boolean closed;
 
     /**
      * Creates a new instance.
@@ -31,7 +66,33 @@ public final class NameSupplierFactory implements ManagedServiceFactory, AutoClo
      *            {@code null}.
      */
     public NameSupplierFactory(BundleContext givenContext) {
+        this(givenContext, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param givenContext
+     *            the context to use for registering the services. It must not be
+     *            {@code null}.
+     * @param givenParallelism
+     *            the number of threads for processing the changes. It must be
+     *            positive.
+     */
+    public NameSupplierFactory(BundleContext givenContext, int givenParallelism) {
+        if (givenParallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive.");
+        }
+
         context = Objects.requireNonNull(givenContext);
+        parallelism = givenParallelism;
+
+        final var threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(parallelism, r -> {
+            final var thread = new Thread(r, "NameSupplierFactory-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     /**
@@ -47,63 +108,241 @@ public final class NameSupplierFactory implements ManagedServiceFactory, AutoClo
      *      java.util.Dictionary)
      */
     @Override
-    public synchronized void updated(String pid, Dictionary<String, ?> properties) throws ConfigurationException {
-        unregister(pid); // Since we use immutable implementation, just unregister the service
-
-        final String name = name(properties);
-        if (name == null) {
-            return;
+    public void updated(String pid, Dictionary<String, ?> properties) throws ConfigurationException {
+        final String name;
+        try {
+            name = NameFormatter.format(Objects.requireNonNull(properties));
+        } catch (ConversionException e) {
+            deleted(pid); // Do not keep the service with the previous name
+            throw new ConfigurationException("name", "Missing or invalid value.", e);
         }
 
-        registrations.put(pid, context.registerService(NameSupplier.class, new FixedNameSupplier(name), null));
+        request(pid, name);
     }
 
     /**
      * @see org.osgi.service.cm.ManagedServiceFactory#deleted(java.lang.String)
      */
     @Override
-    public synchronized void deleted(String pid) {
-        unregister(pid);
+    public void deleted(String pid) {
+        if (entries.containsKey(pid)) {
+            request(pid, null);
+        }
     }
 
     /**
-     * Unregisters all registered services.
+     * Stops processing the changes and unregisters all registered services.
      *
      * @see java.lang.AutoCloseable#close()
      */
     @Override
-    public synchronized void close() {
-        registrations.values().forEach(ServiceRegistration::unregister);
-        registrations.clear();
+    public void close() {
+        closed = true;
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        entries.values().forEach(Entry::retire);
+        entries.clear();
+        changes.clear();
+    }
+
+    private void request(String pid, String name) {
+        while (!closed) { // A retired entry gets replaced unless closed meanwhile
+            final Entry entry = entries.computeIfAbsent(pid, Entry::new);
+            switch (entry.request(name)) {
+                case QUEUED:
+                    changes.add(entry);
+                    schedule();
+                    return;
+
+                case COALESCED:
+                    return;
+
+                case RETIRED:
+                    break; // Removed meanwhile, try a new one
+
+                default:
+                    throw new AssertionError();
+            }
+        }
+    }
+
+    private void schedule() {
+        for (int current; (current = workers.get()) < parallelism;) {
+            if (workers.compareAndSet(current, current + 1)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RuntimeException e) {
+                    workers.decrementAndGet(); // Closed meanwhile
+                }
+
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                final Entry entry = changes.poll();
+                if (entry == null) {
+                    break;
+                }
+
+                entry.apply();
+            }
+        } finally {
+            workers.decrementAndGet();
+            if (!changes.isEmpty() && !closed) {
+                schedule(); // Continue with the next batch
+            }
+        }
     }
 
-    private void unregister(String pid) {
-        final ServiceRegistration<?> registration = registrations.remove(pid);
-        if (registration != null) {
+    private static void unregister(ServiceRegistration<?> registration) {
+        if (registration == null) {
+            return;
+        }
+
+        try {
             registration.unregister();
+        } catch (IllegalStateException e) {
+            // Unregistered already
         }
     }
 
-    private static String name(Dictionary<String, ?> properties) {
-        // Simple variant: no Converter, no nick names etc.
-        // return Objects.toString(properties.get("name"), null);
+    private static Dictionary<String, Object> properties(String pid, String name) {
+        final Dictionary<String, Object> result = new Hashtable<>();
+        result.put(Constants.SERVICE_PID, pid);
+        result.put("name", name);
+        return result;
+    }
+
+    /**
+     * Outcome of requesting a change of an entry.
+     */
+    private enum Request {
+
+        /**
+         * The entry must be queued for processing.
+         */
+        QUEUED,
+
+        /**
+         * The entry is queued already and the change replaced the pending one.
+         */
+        COALESCED,
+
+        /**
+         * The entry was retired and can't accept any change.
+         */
+        RETIRED
+    }
+
+    /**
+     * Keeps the state of a single PID.
+     */
+    private final class Entry {
+
+        final String pid;
 
-        final NameConfiguration config = Converters.standardConverter().convert(properties).to(NameConfiguration.class);
-        final String name = config.name();
-        final String nick = config.nick();
-        if (nick.isEmpty()) {
-            return name;
+        // Guarded by this
+        private String requested;
+        private boolean pending;
+        private boolean queued;
+        private boolean retired;
+        private ServiceRegistration<NameSupplier> registration;
+        private UpdatableNameSupplier supplier;
+
+        Entry(String givenPid) {
+            pid = givenPid;
         }
 
-        final String[] words = name.split(" ");
-        if (words.length < 2) {
-            return name;
+        synchronized Request request(String name) {
+            if (retired) {
+                return Request.RETIRED;
+            }
+
+            requested = name;
+            pending = true;
+
+            if (queued) {
+                return Request.COALESCED;
+            }
+
+            queued = true;
+            return Request.QUEUED;
         }
 
-        return Stream.of(
-            Stream.of(words).limit(words.length - 1),   // All names but the last
-            Stream.of('"' + nick + '"'),                // Quoted nick name
-            Stream.of(words[words.length - 1])          // Surname at the end
-        ).flatMap(Function.identity()).collect(Collectors.joining(" "));
+        void apply() {
+            for (;;) {
+                final String name;
+                ServiceRegistration<NameSupplier> current;
+                UpdatableNameSupplier named;
+                synchronized (this) {
+                    if (retired || !pending) {
+                        queued = false; // Let the next request queue the entry again
+                        return;
+                    }
+
+                    pending = false;
+                    name = requested;
+                    current = registration;
+                    named = supplier;
+                }
+
+                try {
+                    if (name == null) {
+                        if (current != null) {
+                            current.unregister();
+                            current = null;
+                            named = null;
+                        }
+                    } else if (current == null) {
+                        named = new UpdatableNameSupplier(name);
+                        current = context.registerService(NameSupplier.class, named, properties(pid, name));
+                    } else if (!name.equals(named.name())) {
+                        named.name(name);
+                        current.setProperties(properties(pid, name));
+                    } // Else nothing changed, avoid bothering the consumers
+                } catch (IllegalStateException e) {
+                    retire(); // Closed or the bundle stops, the framework removes the services anyway
+                    return;
+                }
+
+                synchronized (this) {
+                    if (!retired) {
+                        registration = current;
+                        supplier = named;
+                        if ((current == null) && !pending) {
+                            retired = true;
+                            entries.remove(pid, this);
+                        }
+
+                        continue; // Apply the requests that came meanwhile
+                    }
+                }
+
+                unregister(current); // Retired meanwhile
+                return;
+            }
+        }
+
+        void retire() {
+            final ServiceRegistration<NameSupplier> current;
+            synchronized (this) {
+                retired = true;
+                current = registration;
+                registration = null;
+                supplier = null;
+            }
+
+            entries.remove(pid, this); // Let a new entry take over the PID
+            unregister(current);
+        }
     }
 }
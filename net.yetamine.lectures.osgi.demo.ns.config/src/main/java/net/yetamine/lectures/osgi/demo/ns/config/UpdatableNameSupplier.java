@@ -0,0 +1,42 @@
+package net.yetamine.lectures.osgi.demo.ns.config;
+
+import java.util.Objects;
+import net.yetamine.lectures.osgi.demo.api.NameSupplier;
+
+/**
+ * Implements a {@link NameSupplier} whose name can be replaced, so that a
+ * registered service can be updated in place instead of registering a new
+ * one.
+ */
+public final class UpdatableNameSupplier implements NameSupplier {
+
+    private volatile String name;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param givenName
+     *            the name to return. It must not be {@code null}.
+     */
+    public UpdatableNameSupplier(String givenName) {
+        name = Objects.requireNonNull(givenName);
+    }
+
+    /**
+     * @see net.yetamine.lectures.osgi.demo.api.NameSupplier#name()
+     */
+    @Override
+    public String name() {
+        return name;
+    }
+
+    /**
+     * Replaces the name.
+     *
+     * @param givenName
+     *            the name to return. It must not be {@code null}.
+     */
+    public void name(String givenName) {
+        name = Objects.requireNonNull(givenName);
+    }
+}
@@ -0,0 +1,110 @@
+package net.yetamine.lectures.osgi.demo.ns.config;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.osgi.util.converter.ConversionException;
+import org.osgi.util.converter.Converters;
+
+/**
+ * Tests that {@link NameFormatter} gives the same results as the original
+ * implementation converting the properties to {@link NameConfiguration}.
+ */
+final class NameFormatterTest {
+
+    @Test
+    void testPlainName() {
+        assertFormatted("John Smith", properties("John Smith", null));
+        assertFormatted("John Smith", properties("John Smith", ""));
+    }
+
+    @Test
+    void testNickName() {
+        assertFormatted("John \"Jack\" Smith", properties("John Smith", "Jack"));
+        assertFormatted("John Ronald Reuel \"Tollers\" Tolkien", properties("John Ronald Reuel Tolkien", "Tollers"));
+    }
+
+    @Test
+    void testSingleWord() {
+        assertFormatted("Single", properties("Single", "x"));
+    }
+
+    @Test
+    void testLeadingSpace() {
+        assertFormatted(" Leading \"x\" space", properties(" Leading space", "x"));
+    }
+
+    @Test
+    void testTrailingSpaces() {
+        assertFormatted("Trailing  \"x\" spaces", properties("Trailing  spaces  ", "x"));
+    }
+
+    @Test
+    void testDoubleSpaces() {
+        assertFormatted("John  \"x\" Smith", properties("John  Smith", "x"));
+    }
+
+    @Test
+    void testSpacesOnly() {
+        assertFormatted("   ", properties("   ", "x"));
+    }
+
+    @Test
+    void testNonStringValues() {
+        assertFormatted("John \"Jack\" Smith", properties(new String[] { "John Smith", "Ignored" }, List.of("Jack")));
+        assertFormatted("42", properties(42, 7));
+        assertFormatted("John \"7\" Smith", properties("John Smith", 7));
+    }
+
+    @Test
+    void testMissingName() {
+        final var properties = properties(null, "Jack");
+        assertThrows(ConversionException.class, () -> converter(properties));
+        assertThrows(ConversionException.class, () -> NameFormatter.format(properties));
+    }
+
+    private static void assertFormatted(String expected, Dictionary<String, ?> properties) {
+        assertEquals(expected, converter(properties));
+        assertEquals(expected, NameFormatter.format(properties));
+    }
+
+    private static String converter(Dictionary<String, ?> properties) {
+        final NameConfiguration config = Converters.standardConverter().convert(properties).to(NameConfiguration.class);
+        final String name = config.name();
+        final String nick = config.nick();
+        if (nick.isEmpty()) {
+            return name;
+        }
+
+        final String[] words = name.split(" ");
+        if (words.length < 2) {
+            return name;
+        }
+
+        return Stream.of(
+            Stream.of(words).limit(words.length - 1),   // All names but the last
+            Stream.of('"' + nick + '"'),                // Quoted nick name
+            Stream.of(words[words.length - 1])          // Surname at the end
+        ).flatMap(Function.identity()).collect(Collectors.joining(" "));
+    }
+
+    private static Dictionary<String, Object> properties(Object name, Object nick) {
+        final var result = new Hashtable<String, Object>();
+        if (name != null) {
+            result.put("name", name);
+        }
+
+        if (nick != null) {
+            result.put("nick", nick);
+        }
+
+        return result;
+    }
+}
@@ -1,13 +1,12 @@
 package net.yetamine.lectures.osgi.demo.tracker;
 
-import java.util.Map;
+import java.util.List;
 import net.yetamine.lectures.osgi.demo.api.NameSupplier;
 import org.osgi.annotation.bundle.Header;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceReference;
-import org.osgi.util.tracker.ServiceTracker;
 
 /**
  * Registers a tracker that greets coming and leaving {@link NameSupplier}
@@ -16,7 +15,7 @@ import org.osgi.util.tracker.ServiceTracker;
 @Header(name = Constants.BUNDLE_ACTIVATOR, value = "${@class}")
 public final class Activator implements BundleActivator {
 
-    private ServiceTracker<NameSupplier, NameSupplier> nameSuppliers;
+    private RankedServiceTracker<NameSupplier> nameSuppliers;
 
     /**
      * Creates a new instance.
@@ -34,7 +33,7 @@ public final class Activator implements BundleActivator {
 
         // Nowadays Java compiler can often handle anonymous generic types (like here),
         // we leave generic type parameters here for better readability
-        nameSuppliers = new ServiceTracker<NameSupplier, NameSupplier>(context, NameSupplier.class, null) {
+        nameSuppliers = new RankedServiceTracker<NameSupplier>(context, NameSupplier.class) {
 
             @Override
             public NameSupplier addingService(ServiceReference<NameSupplier> reference) {
@@ -52,8 +51,9 @@ public final class Activator implements BundleActivator {
 
         nameSuppliers.open();
 
-        final Map<ServiceReference<NameSupplier>, NameSupplier> snapshot = nameSuppliers.getTracked();
-        System.out.format("Currently %d services tracked:%n%s%n", snapshot.size(), snapshot.values());
+        // The snapshot is immutable and cheap to get, unlike getTracked() that copies the tracked map
+        final List<NameSupplier> snapshot = nameSuppliers.services();
+        System.out.format("Currently %d services tracked:%n%s%n", snapshot.size(), snapshot);
     }
 
     /**
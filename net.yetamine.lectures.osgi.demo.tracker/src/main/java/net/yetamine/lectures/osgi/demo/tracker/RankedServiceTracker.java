@@ -0,0 +1,161 @@
+package net.yetamine.lectures.osgi.demo.tracker;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+
+/**
+ * Tracks services and keeps them sorted by their ranking.
+ *
+ * <p>
+ * Unlike {@link ServiceTracker#getTracked()} or
+ * {@link ServiceTracker#getServices()}, which copy the tracked services on
+ * every call, this tracker maintains an immutable snapshot of the services
+ * that is replaced whenever a service is added, modified or removed. Hence
+ * {@link #services()} and {@link #best()} need neither locking nor any
+ * allocation, which makes them suitable for frequent polling, while the cost
+ * of the changes is linear in the number of the tracked services.
+ *
+ * <p>
+ * Subclasses that override {@link #addingService(ServiceReference)},
+ * {@link #modifiedService(ServiceReference, Object)} or
+ * {@link #removedService(ServiceReference, Object)} must invoke the inherited
+ * implementation to keep the snapshot up to date.
+ *
+ * @param <S>
+ *            the type of the services
+ */
+class RankedServiceTracker<S> extends ServiceTracker<S, S> {
+
+    private final Object lock = new Object();
+    private final List<Ranked<S>> ranking = new ArrayList<>(); // Guarded by lock
+    private volatile List<S> services = List.of();
+
+    /**
+     * Creates a new instance.
+     *
+     * @param context
+     *            the context to use. It must not be {@code null}.
+     * @param clazz
+     *            the type of the services to track. It must not be
+     *            {@code null}.
+     */
+    RankedServiceTracker(BundleContext context, Class<S> clazz) {
+        super(context, clazz, null);
+    }
+
+    /**
+     * Returns the tracked services sorted by their ranking, the service with
+     * the highest ranking first.
+     *
+     * @return an immutable list of the tracked services, never {@code null}
+     */
+    public final List<S> services() {
+        return services;
+    }
+
+    /**
+     * Returns the service with the highest ranking, which is the same service
+     * that {@link ServiceTracker#getService()} would return, but without any
+     * locking.
+     *
+     * @return the service with the highest ranking, or {@code null} if no
+     *         service is tracked
+     */
+    public final S best() {
+        final List<S> current = services;
+        return current.isEmpty() ? null : current.get(0);
+    }
+
+    /**
+     * @see org.osgi.util.tracker.ServiceTracker#addingService(org.osgi.framework.ServiceReference)
+     */
+    @Override
+    public S addingService(ServiceReference<S> reference) {
+        final S result = super.addingService(reference);
+        if (result != null) {
+            synchronized (lock) {
+                rank(new Ranked<>(reference, result));
+                publish();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @see org.osgi.util.tracker.ServiceTracker#modifiedService(org.osgi.framework.ServiceReference,
+     *      java.lang.Object)
+     */
+    @Override
+    public void modifiedService(ServiceReference<S> reference, S service) {
+        synchronized (lock) {
+            final Ranked<S> entry = unrank(reference);
+            if (entry != null) {
+                rank(entry); // The ranking might change
+                publish();
+            }
+        }
+
+        super.modifiedService(reference, service);
+    }
+
+    /**
+     * @see org.osgi.util.tracker.ServiceTracker#removedService(org.osgi.framework.ServiceReference,
+     *      java.lang.Object)
+     */
+    @Override
+    public void removedService(ServiceReference<S> reference, S service) {
+        synchronized (lock) {
+            if (unrank(reference) != null) {
+                publish();
+            }
+        }
+
+        super.removedService(reference, service);
+    }
+
+    private void rank(Ranked<S> entry) {
+        // Find the first entry ranked lower than the new one
+        int low = 0;
+        int high = ranking.size();
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (ranking.get(middle).reference.compareTo(entry.reference) > 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        ranking.add(low, entry);
+    }
+
+    private Ranked<S> unrank(ServiceReference<S> reference) {
+        for (int i = 0; i < ranking.size(); i++) {
+            if (ranking.get(i).reference.equals(reference)) {
+                return ranking.remove(i);
+            }
+        }
+
+        return null;
+    }
+
+    private void publish() {
+        services = ranking.stream().map(Ranked::service).toList();
+    }
+
+    /**
+     * Binds a service to its reference.
+     *
+     * @param <S>
+     *            the type of the service
+     * @param reference
+     *            the reference of the service
+     * @param service
+     *            the service
+     */
+    private record Ranked<S>(ServiceReference<S> reference, S service) {}
+}
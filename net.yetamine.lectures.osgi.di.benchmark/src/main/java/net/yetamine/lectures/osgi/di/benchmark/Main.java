@@ -0,0 +1,174 @@
+package net.yetamine.lectures.osgi.di.benchmark;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the startup time and the footprint of the {@code NameSupplier}
+ * providers implemented with a plain activator, Declarative Services,
+ * Blueprint and CDI when the framework contains many copies of them.
+ *
+ * <p>
+ * Each trial runs in a new JVM with an embedded framework containing the
+ * runtime bundles of the style from the {@code bundles} directory next to the
+ * launcher, see {@link Trial} for details. The launcher repeats each trial a
+ * few times, takes the medians and writes them in a JSON report with a result
+ * per line, in a fixed order, so that the reports of different releases can be
+ * compared with a plain diff. Following system properties adjust the run:
+ *
+ * <ul>
+ * <li>{@code benchmark.styles}: the comma-separated styles to measure
+ * ({@code activator,ds,blueprint,cdi} by default),</li>
+ * <li>{@code benchmark.copies}: the comma-separated numbers of the copies of
+ * the provider bundle ({@code 10,100,1000} by default),</li>
+ * <li>{@code benchmark.forks}: the number of trials for each combination (3 by
+ * default),</li>
+ * <li>{@code benchmark.timeout}: the time in seconds to wait for the services
+ * in a trial (600 by default); a trial that does not finish within this time
+ * plus five minutes for the rest of its work is killed,</li>
+ * <li>{@code benchmark.jvmArgs}: the space-separated options for the JVMs of
+ * the trials, e.g., the heap size (none by default),</li>
+ * <li>{@code benchmark.report}: the path of the report
+ * ({@code di-benchmark.json} by default),</li>
+ * <li>{@code benchmark.bundles}: the directory with the bundle directories of
+ * the styles.</li>
+ * </ul>
+ */
+public final class Main {
+
+    private static final long TRIAL_GRACE = 300; // Seconds to start and stop a trial beyond the timeout
+
+    private Main() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args
+     *            the arguments (ignored)
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String... args) throws Exception {
+        final var styles = Stream.of(System.getProperty("benchmark.styles", "activator,ds,blueprint,cdi").split(","))
+            .map(Style::parse)
+            .distinct()
+            .sorted()
+            .toList();
+
+        final var copies = Stream.of(System.getProperty("benchmark.copies", "10,100,1000").split(","))
+            .map(String::trim)
+            .map(Integer::valueOf)
+            .distinct()
+            .sorted()
+            .toList();
+
+        final int forks = Integer.getInteger("benchmark.forks", 3);
+        final long timeout = Long.getLong("benchmark.timeout", 600);
+        final var jvmArgs = Stream.of(System.getProperty("benchmark.jvmArgs", "").split(" ")).filter(s -> !s.isBlank()).toList();
+        final var report = Path.of(System.getProperty("benchmark.report", "di-benchmark.json"));
+        final var bundles = Path.of(System.getProperty("benchmark.bundles", defaultBundles().toString()));
+
+        if (forks < 1) {
+            throw new IllegalArgumentException("Forks must be positive.");
+        }
+
+        System.out.format("%-10s %7s %12s %12s %12s %12s %12s %8s%n",
+            "style", "copies", "installed", "resolved", "started", "available", "heap/copy", "threads");
+
+        final List<String> results = new ArrayList<>();
+        for (Style style : styles) {
+            for (int count : copies) {
+                final List<Result> trials = new ArrayList<>(forks);
+                for (int i = 0; i < forks; i++) {
+                    trials.add(trial(style, count, bundles, timeout, jvmArgs));
+                }
+
+                final var result = Result.median(trials);
+                System.out.format(Locale.ROOT, "%-10s %7d %9.1f ms %9.1f ms %9.1f ms %9.1f ms %10d B %8d%n",
+                    style.id(), count, result.installed(), result.resolved(), result.started(), result.available(), result.heap(), result.threads());
+
+                results.add(result.json(style, count));
+            }
+        }
+
+        Files.writeString(report, report(forks, jvmArgs, results));
+        System.out.println("Report written to " + report.toAbsolutePath());
+    }
+
+    private static Result trial(Style style, int copies, Path bundles, long timeout, List<String> jvmArgs) throws IOException, InterruptedException {
+        final List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.addAll(style.jvmArgs());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Trial.class.getName());
+        command.add(style.id());
+        command.add(Integer.toString(copies));
+        command.add(bundles.toString());
+        command.add(Long.toString(timeout));
+
+        // Collect the output in a file, so that a stuck trial cannot block reading
+        final var output = Files.createTempFile("trial", ".out");
+        try {
+            final var process = new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .redirectOutput(output.toFile())
+                .start();
+
+            if (!process.waitFor(timeout + TRIAL_GRACE, TimeUnit.SECONDS)) {
+                process.destroyForcibly().waitFor();
+                throw new IOException("Trial " + style.id() + " with " + copies + " copies did not finish in time");
+            }
+
+            final int status = process.exitValue();
+            if (status != 0) {
+                throw new IOException("Trial " + style.id() + " with " + copies + " copies failed with status " + status);
+            }
+
+            try (Stream<String> lines = Files.lines(output)) {
+                return Result.parse(lines.filter(line -> !line.isBlank()).reduce((first, second) -> second).orElse(""));
+            }
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private static String report(int forks, List<String> jvmArgs, List<String> results) {
+        final var environment = Stream.of("java.version", "java.vm.name", "os.name", "os.arch")
+            .map(name -> String.format("\"%s\": \"%s\"", name, System.getProperty(name)))
+            .collect(Collectors.joining(", "));
+
+        return String.format("""
+            {
+              "environment": {%s, "processors": %d},
+              "forks": %d,
+              "jvmArgs": "%s",
+              "results": [
+                %s
+              ]
+            }
+            """,
+            environment, Runtime.getRuntime().availableProcessors(), forks, String.join(" ", jvmArgs), String.join(",\n    ", results));
+    }
+
+    private static Path defaultBundles() throws IOException {
+        try {
+            final var location = Path.of(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return location.resolveSibling("bundles");
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+}
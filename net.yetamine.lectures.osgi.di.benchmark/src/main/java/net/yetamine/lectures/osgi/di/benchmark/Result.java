@@ -0,0 +1,108 @@
+package net.yetamine.lectures.osgi.di.benchmark;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Result of a trial.
+ *
+ * <p>
+ * The times are in milliseconds and they are measured from the beginning of
+ * installing the copies. The heap and thread counts are the differences
+ * against the framework with the runtime of the style only.
+ *
+ * @param provider
+ *            the symbolic name and the version of the copied bundle
+ * @param installed
+ *            the time when all copies got installed
+ * @param resolved
+ *            the time when all copies got resolved
+ * @param started
+ *            the time when starting all copies returned
+ * @param available
+ *            the time when all copies registered the service
+ * @param heap
+ *            the retained heap per copy in bytes
+ * @param threads
+ *            the number of threads that the copies added
+ */
+record Result(String provider, double installed, double resolved, double started, double available, long heap, long threads) {
+
+    /**
+     * Parses the result from the form that {@link #format()} produces.
+     *
+     * @param line
+     *            the line to parse. It must not be {@code null}.
+     *
+     * @return the result
+     *
+     * @throws IllegalArgumentException
+     *             if the line has a wrong format
+     */
+    static Result parse(String line) {
+        final var fields = line.trim().split(" ");
+        if (fields.length != 7) {
+            throw new IllegalArgumentException("Unexpected result: " + line);
+        }
+
+        return new Result(
+            fields[0],
+            Double.parseDouble(fields[1]),
+            Double.parseDouble(fields[2]),
+            Double.parseDouble(fields[3]),
+            Double.parseDouble(fields[4]),
+            Long.parseLong(fields[5]),
+            Long.parseLong(fields[6]));
+    }
+
+    /**
+     * Combines the results of repeated trials, taking the median of each value.
+     *
+     * @param results
+     *            the results to combine. It must not be empty.
+     *
+     * @return the combined result
+     */
+    static Result median(List<Result> results) {
+        return new Result(
+            results.get(0).provider(),
+            median(results, Result::installed),
+            median(results, Result::resolved),
+            median(results, Result::started),
+            median(results, Result::available),
+            Math.round(median(results, Result::heap)),
+            Math.round(median(results, Result::threads)));
+    }
+
+    /**
+     * @return the single-line form for passing the result to the launcher
+     */
+    String format() {
+        return String.format(Locale.ROOT, "%s %.3f %.3f %.3f %.3f %d %d", provider, installed, resolved, started, available, heap, threads);
+    }
+
+    /**
+     * Formats the result as a JSON object.
+     *
+     * @param style
+     *            the style of the trial. It must not be {@code null}.
+     * @param copies
+     *            the number of the copies
+     *
+     * @return the JSON object
+     */
+    String json(Style style, int copies) {
+        return String.format(Locale.ROOT,
+            "{\"style\": \"%s\", \"copies\": %d, \"provider\": \"%s\", "
+                + "\"installedMs\": %.3f, \"resolvedMs\": %.3f, \"startedMs\": %.3f, \"availableMs\": %.3f, "
+                + "\"heapPerCopy\": %d, \"threads\": %d}",
+            style.id(), copies, provider, installed, resolved, started, available, heap, threads);
+    }
+
+    private static double median(List<Result> results, ToDoubleFunction<Result> value) {
+        final double[] values = results.stream().mapToDouble(value).sorted().toArray();
+        final int middle = values.length / 2;
+        return ((values.length % 2) != 0) ? values[middle] : (values[middle - 1] + values[middle]) / 2;
+    }
+}
@@ -0,0 +1,170 @@
+package net.yetamine.lectures.osgi.di.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleException;
+
+/**
+ * Describes the ways to provide the {@code NameSupplier} service that the
+ * demos show, each with the bundle to copy and with the runtime it needs.
+ *
+ * <p>
+ * The runtime bundles of a style reside in the directory with the name of the
+ * style, which contains the provider bundle as well.
+ */
+enum Style {
+
+    /**
+     * A plain bundle activator, no runtime needed.
+     */
+    ACTIVATOR("net.yetamine.lectures.osgi.demo.ns.fixed", List.of()),
+
+    /**
+     * A Declarative Services component with a configuration.
+     */
+    DS("net.yetamine.lectures.osgi.demo.ds", List.of()) {
+
+        private static final String CONFIGURATION_ADMIN = "org.osgi.service.cm.ConfigurationAdmin";
+        private static final String CONFIGURATION = "org.osgi.service.cm.Configuration";
+        private static final String PID = "net.yetamine.lectures.osgi.demo.ds";
+
+        private static final String SERVICE_COMPONENT = "Service-Component";
+        private static final String COMPONENT = "OSGI-INF/net.yetamine.lectures.osgi.demo.ds.NameSupplierComponent.xml";
+
+        @Override
+        byte[] provider(byte[] bundle) throws IOException {
+            // Keep just the NameSupplier component, the others are consumers
+            try (JarInputStream input = new JarInputStream(new ByteArrayInputStream(bundle))) {
+                final var manifest = new Manifest(input.getManifest());
+                manifest.getMainAttributes().putValue(SERVICE_COMPONENT, COMPONENT);
+
+                final var result = new ByteArrayOutputStream(bundle.length);
+                try (JarOutputStream output = new JarOutputStream(result, manifest)) {
+                    for (JarEntry entry; (entry = input.getNextJarEntry()) != null;) {
+                        output.putNextEntry(new JarEntry(entry.getName()));
+                        input.transferTo(output);
+                        output.closeEntry();
+                    }
+                }
+
+                return result.toByteArray();
+            }
+        }
+
+        @Override
+        void prepare(BundleContext context) throws Exception {
+            final var reference = context.getServiceReference(CONFIGURATION_ADMIN);
+            if (reference == null) {
+                throw new BundleException("Missing service " + CONFIGURATION_ADMIN);
+            }
+
+            // The harness does not share the API with the framework, hence the reflection
+            final var loader = reference.getBundle();
+            final Object admin = context.getService(reference);
+            try {
+                final Dictionary<String, Object> properties = new Hashtable<>();
+                properties.put("name", "John Doe");
+                // The multi-location binding lets all copies get the same configuration
+                final Object configuration = loader.loadClass(CONFIGURATION_ADMIN)
+                    .getMethod("getConfiguration", String.class, String.class)
+                    .invoke(admin, PID, "?");
+
+                loader.loadClass(CONFIGURATION).getMethod("update", Dictionary.class).invoke(configuration, properties);
+            } finally {
+                context.ungetService(reference);
+            }
+        }
+    },
+
+    /**
+     * A Blueprint Container bean.
+     */
+    BLUEPRINT("net.yetamine.lectures.osgi.demo.blueprint", List.of()),
+
+    /**
+     * A CDI bean, Weld needs to open {@code java.lang} for defining proxies.
+     */
+    CDI("net.yetamine.lectures.osgi.demo.cdi.provider", List.of("--add-opens=java.base/java.lang=ALL-UNNAMED"));
+
+    private final String provider;
+    private final List<String> jvmArgs;
+
+    Style(String givenProvider, List<String> givenJvmArgs) {
+        provider = givenProvider;
+        jvmArgs = givenJvmArgs;
+    }
+
+    /**
+     * Returns the style with the given identifier.
+     *
+     * @param id
+     *            the identifier. It must not be {@code null}.
+     *
+     * @return the style
+     *
+     * @throws IllegalArgumentException
+     *             if no such style exists
+     */
+    static Style parse(String id) {
+        return valueOf(id.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @return the identifier of the style, which names the bundle directory too
+     */
+    String id() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return the symbolic name of the bundle that provides the service
+     */
+    String provider() {
+        return provider;
+    }
+
+    /**
+     * @return the options that the JVM needs to run the style
+     */
+    List<String> jvmArgs() {
+        return jvmArgs;
+    }
+
+    /**
+     * Adapts the provider bundle for installing multiple copies.
+     *
+     * @param bundle
+     *            the content of the bundle. It must not be {@code null}.
+     *
+     * @return the content to install
+     *
+     * @throws IOException
+     *             if the content could not be processed
+     */
+    byte[] provider(byte[] bundle) throws IOException {
+        return bundle;
+    }
+
+    /**
+     * Prepares the runtime for the copies of the provider bundle.
+     *
+     * @param context
+     *            the context of the framework. It must not be {@code null}.
+     *
+     * @throws Exception
+     *             if the runtime could not be prepared
+     */
+    void prepare(BundleContext context) throws Exception {
+        // Nothing by default
+    }
+}
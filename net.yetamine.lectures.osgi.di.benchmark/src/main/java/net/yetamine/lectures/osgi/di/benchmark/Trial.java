@@ -0,0 +1,231 @@
+package net.yetamine.lectures.osgi.di.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+import org.osgi.framework.wiring.FrameworkWiring;
+
+/**
+ * Runs a single trial in a fresh JVM, so that the trials do not affect each
+ * other, and prints the result for the launcher.
+ *
+ * <p>
+ * The trial starts an embedded framework with the runtime bundles of a style,
+ * then it installs the given number of copies of the provider bundle, resolves
+ * and starts them, and waits until all copies register the service. Finally,
+ * it measures the heap and the threads after a full garbage collection. The
+ * framework allows multiple bundles with the same symbolic name and version,
+ * so that the copies differ just in their location.
+ */
+public final class Trial {
+
+    private static final String SERVICE_FILTER = "(objectClass=net.yetamine.lectures.osgi.demo.api.NameSupplier)";
+
+    private final Style style;
+    private final int copies;
+    private final Path bundles;
+    private final long timeout;
+
+    private Trial(Style givenStyle, int givenCopies, Path givenBundles, long givenTimeout) {
+        style = givenStyle;
+        copies = givenCopies;
+        bundles = givenBundles;
+        timeout = givenTimeout;
+    }
+
+    /**
+     * Runs the trial.
+     *
+     * @param args
+     *            the arguments: the style, the number of copies, the directory
+     *            with the bundle directories of the styles and the timeout for
+     *            the services to become available in seconds
+     *
+     * @throws Exception
+     *             if the trial fails
+     */
+    public static void main(String... args) throws Exception {
+        if (args.length != 4) {
+            throw new IllegalArgumentException("Usage: Trial <style> <copies> <bundles> <timeout>");
+        }
+
+        final var trial = new Trial(Style.parse(args[0]), Integer.parseInt(args[1]), Path.of(args[2]), Long.parseLong(args[3]));
+        final var output = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // Some bundles print on every start
+        // Blueprint and Weld log a few lines for every bundle
+        System.setProperty("org.slf4j.simpleLogger.defaultLogLevel", "warn");
+        Logger.getLogger("").setLevel(Level.WARNING);
+        // Some runtimes leave non-daemon threads even when the framework stops,
+        // hence exit explicitly, with a failure status if the trial fails
+        try {
+            final var result = trial.run();
+            output.println(result.format());
+            output.flush();
+        } catch (Exception | Error e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+
+    private Result run() throws Exception {
+        final var directory = bundles.resolve(style.id());
+        final List<Path> runtime = new ArrayList<>();
+        Path provider = null;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files.filter(f -> f.toString().endsWith(".jar")).sorted()::iterator) {
+                if (style.provider().equals(symbolicName(file))) {
+                    provider = file;
+                } else {
+                    runtime.add(file);
+                }
+            }
+        }
+
+        if (provider == null) {
+            throw new BundleException("Missing bundle " + style.provider() + " in " + directory);
+        }
+
+        final var storage = Files.createTempDirectory("benchmark");
+        final var framework = start(storage, runtime);
+        try {
+            final var context = framework.getBundleContext();
+            style.prepare(context);
+            final byte[] content = style.provider(Files.readAllBytes(provider));
+            final var location = provider.toUri().toString();
+
+            final long baseHeap = usedHeap();
+            final long baseThreads = threads();
+
+            final var registered = new CountDownLatch(copies);
+            context.addServiceListener(event -> {
+                if (event.getType() == ServiceEvent.REGISTERED) {
+                    registered.countDown();
+                }
+            }, SERVICE_FILTER);
+
+            final long t0 = System.nanoTime();
+            final List<Bundle> installed = new ArrayList<>(copies);
+            for (int i = 0; i < copies; i++) {
+                installed.add(context.installBundle(location + "#" + i, new ByteArrayInputStream(content)));
+            }
+
+            final long t1 = System.nanoTime();
+            if (!framework.adapt(FrameworkWiring.class).resolveBundles(installed)) {
+                throw new BundleException("Could not resolve the copies of " + style.provider());
+            }
+
+            final long t2 = System.nanoTime();
+            for (Bundle bundle : installed) {
+                bundle.start();
+            }
+
+            final long t3 = System.nanoTime();
+            if (!registered.await(timeout, TimeUnit.SECONDS)) {
+                throw new TimeoutException("Missing " + registered.getCount() + " services after " + timeout + " s");
+            }
+
+            final long t4 = System.nanoTime();
+            final var bundle = installed.get(0);
+            return new Result(
+                bundle.getSymbolicName() + '/' + bundle.getVersion(),
+                millis(t0, t1),
+                millis(t0, t2),
+                millis(t0, t3),
+                millis(t0, t4),
+                (usedHeap() - baseHeap) / copies,
+                threads() - baseThreads);
+        } finally {
+            framework.stop();
+            framework.waitForStop(10_000);
+            delete(storage); // The copies take a lot of space
+        }
+    }
+
+    private static Framework start(Path storage, List<Path> runtime) throws BundleException {
+        final var framework = ServiceLoader.load(FrameworkFactory.class).findFirst().orElseThrow().newFramework(Map.of(
+            Constants.FRAMEWORK_STORAGE, storage.toString(),
+            Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT,
+            Constants.FRAMEWORK_BSNVERSION, Constants.FRAMEWORK_BSNVERSION_MULTIPLE));
+
+        framework.start();
+        try {
+            final var context = framework.getBundleContext();
+            final List<Bundle> installed = new ArrayList<>();
+            for (Path file : runtime) {
+                installed.add(context.installBundle(file.toUri().toString()));
+            }
+
+            for (Bundle bundle : installed) {
+                if (bundle.getHeaders().get(Constants.FRAGMENT_HOST) == null) {
+                    bundle.start();
+                }
+            }
+        } catch (BundleException | RuntimeException e) {
+            framework.stop(); // Do not leave the framework threads running
+            throw e;
+        }
+
+        return framework;
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static String symbolicName(Path file) throws IOException {
+        try (JarFile jar = new JarFile(file.toFile())) {
+            final var manifest = jar.getManifest();
+            final var value = (manifest != null) ? manifest.getMainAttributes().getValue(Constants.BUNDLE_SYMBOLICNAME) : null;
+            return (value != null) ? value.split(";", 2)[0].trim() : null;
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        // Let the runtimes finish the work in progress and collect the garbage
+        final var memory = ManagementFactory.getMemoryMXBean();
+        long result = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(200);
+            System.gc();
+            result = Math.min(result, memory.getHeapMemoryUsage().getUsed());
+        }
+
+        return result;
+    }
+
+    private static long threads() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    private static double millis(long from, long to) {
+        return (to - from) / 1e6;
+    }
+}
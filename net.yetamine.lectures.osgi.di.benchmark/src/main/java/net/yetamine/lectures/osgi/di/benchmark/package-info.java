@@ -0,0 +1,5 @@
+/**
+ * Compares the startup time and the footprint of the dependency injection
+ * styles that the demos use in an embedded framework.
+ */
+package net.yetamine.lectures.osgi.di.benchmark;
@@ -0,0 +1,244 @@
+package net.yetamine.lectures.osgi.http.benchmark;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives a single URI with a fixed number of concurrent clients and measures
+ * the throughput, the latency distribution and the allocation rate.
+ *
+ * <p>
+ * Each client runs in its own platform thread and sends the requests one by
+ * one, so that the concurrency equals the number of requests in flight. The
+ * allocation rate covers all threads of the process, i.e., both the clients
+ * and the server, because the framework runs embedded.
+ */
+final class LoadTest {
+
+    private final HttpClient client;
+    private final HttpRequest request;
+    private final int concurrency;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param uri
+     *            the URI to drive. It must not be {@code null}.
+     * @param givenConcurrency
+     *            the number of concurrent clients. It must be positive.
+     */
+    LoadTest(URI uri, int givenConcurrency) {
+        if (givenConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive.");
+        }
+
+        concurrency = givenConcurrency;
+        request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(10)).GET().build();
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    /**
+     * Sends requests until the URI responds successfully.
+     *
+     * @param timeout
+     *            the time to wait at most. It must not be {@code null}.
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     * @throws IOException
+     *             if the URI did not respond successfully in time
+     */
+    void await(Duration timeout) throws InterruptedException, IOException {
+        final long deadline = System.nanoTime() + timeout.toNanos();
+        for (;;) {
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                if (System.nanoTime() - deadline >= 0) {
+                    throw e;
+                }
+            }
+
+            if (System.nanoTime() - deadline >= 0) {
+                throw new IOException("No successful response from " + request.uri());
+            }
+
+            Thread.sleep(100);
+        }
+    }
+
+    /**
+     * Runs the load for the given time.
+     *
+     * @param duration
+     *            the duration of the run. It must not be {@code null}.
+     *
+     * @return the result of the run
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    Result run(Duration duration) throws InterruptedException {
+        final var threads = ManagementFactory.getPlatformMXBean(com.sun.management.ThreadMXBean.class);
+        final var errors = new LongAdder();
+        final var recorders = new ArrayList<Recorder>(concurrency);
+        final var workers = new ArrayList<Thread>(concurrency);
+
+        final long allocatedBefore = threads.getTotalThreadAllocatedBytes();
+        final long start = System.nanoTime();
+        final long deadline = start + duration.toNanos();
+        for (int i = 0; i < concurrency; i++) {
+            final var recorder = new Recorder();
+            recorders.add(recorder);
+            workers.add(Thread.ofPlatform().name("LoadTest-" + i).start(() -> drive(recorder, errors, deadline)));
+        }
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        final long elapsed = System.nanoTime() - start;
+        final long allocated = threads.getTotalThreadAllocatedBytes() - allocatedBefore;
+        return Result.of(recorders, errors.sum(), elapsed, allocated);
+    }
+
+    private void drive(Recorder recorder, LongAdder errors, long deadline) {
+        for (long now = System.nanoTime(); now - deadline < 0; now = System.nanoTime()) {
+            try {
+                final var response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() == 200) {
+                    recorder.record(System.nanoTime() - now);
+                } else {
+                    errors.increment();
+                }
+            } catch (IOException e) {
+                errors.increment();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Collects the latencies of a single client.
+     */
+    private static final class Recorder {
+
+        long[] samples = new long[1024];
+        int count;
+
+        Recorder() {
+            // Default constructor
+        }
+
+        void record(long latency) {
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+
+            samples[count++] = latency;
+        }
+    }
+
+    /**
+     * Summarizes a run.
+     *
+     * @param requests
+     *            the number of successful requests
+     * @param errors
+     *            the number of failed requests
+     * @param elapsed
+     *            the duration of the run in nanoseconds
+     * @param allocated
+     *            the number of bytes allocated by all threads during the run
+     * @param percentiles
+     *            the latencies in nanoseconds for 50th, 90th, 99th and 99.9th
+     *            percentile and the maximal latency
+     */
+    record Result(long requests, long errors, long elapsed, long allocated, long[] percentiles) {
+
+        private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999, 1.0 };
+
+        /**
+         * Creates a new instance.
+         *
+         * @param requests
+         *            the number of successful requests
+         * @param errors
+         *            the number of failed requests
+         * @param elapsed
+         *            the duration of the run in nanoseconds
+         * @param allocated
+         *            the number of bytes allocated by all threads during the
+         *            run
+         * @param percentiles
+         *            the latencies for {@link #QUANTILES}. It must not be
+         *            {@code null}.
+         */
+        Result {
+            Objects.requireNonNull(percentiles);
+        }
+
+        static Result of(List<Recorder> recorders, long errors, long elapsed, long allocated) {
+            final long[] all = new long[recorders.stream().mapToInt(r -> r.count).sum()];
+            int position = 0;
+            for (Recorder recorder : recorders) {
+                System.arraycopy(recorder.samples, 0, all, position, recorder.count);
+                position += recorder.count;
+            }
+
+            Arrays.sort(all);
+            final long[] percentiles = new long[QUANTILES.length];
+            for (int i = 0; i < QUANTILES.length; i++) {
+                percentiles[i] = (all.length > 0) ? all[(int) Math.ceil(QUANTILES[i] * all.length) - 1] : 0;
+            }
+
+            return new Result(all.length, errors, elapsed, allocated, percentiles);
+        }
+
+        /**
+         * @return the number of successful requests per second
+         */
+        double throughput() {
+            return requests * 1e9 / elapsed;
+        }
+
+        /**
+         * @return the number of bytes allocated per second
+         */
+        double allocationRate() {
+            return allocated * 1e9 / elapsed;
+        }
+
+        /**
+         * @see java.lang.Record#toString()
+         */
+        @Override
+        public String toString() {
+            return String.format("%,.0f req/s, latency p50=%d us p90=%d us p99=%d us p99.9=%d us max=%d us, "
+                    + "allocation %,.1f MB/s (%,d B/req), errors=%d",
+                throughput(),
+                percentiles[0] / 1000,
+                percentiles[1] / 1000,
+                percentiles[2] / 1000,
+                percentiles[3] / 1000,
+                percentiles[4] / 1000,
+                allocationRate() / (1024 * 1024),
+                (requests > 0) ? allocated / requests : 0,
+                errors);
+        }
+    }
+}
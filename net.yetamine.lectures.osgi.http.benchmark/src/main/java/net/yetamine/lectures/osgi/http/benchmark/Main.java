@@ -0,0 +1,155 @@
+package net.yetamine.lectures.osgi.http.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.stream.Stream;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleException;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+
+/**
+ * Compares the request throughput of {@code SecretServlet} registered with the
+ * prototype scope, as the component declares, and with the singleton scope.
+ *
+ * <p>
+ * The benchmark starts an embedded framework with the bundles from the
+ * {@code bundles} directory next to the launcher, i.e., Declarative Services,
+ * Http Whiteboard and the demo bundle. The {@code prototype} scope uses the
+ * component at {@code /hello/secret}, while the {@code singleton} scope
+ * registers a single instance of the same servlet class at
+ * {@code /hello/secret-singleton}. Following system properties adjust the run:
+ *
+ * <ul>
+ * <li>{@code benchmark.port}: the HTTP port (8080 by default),</li>
+ * <li>{@code benchmark.concurrency}: the number of concurrent clients (16 by
+ * default),</li>
+ * <li>{@code benchmark.warmup}: the warm-up time in seconds (5 by
+ * default),</li>
+ * <li>{@code benchmark.duration}: the measurement time in seconds (10 by
+ * default),</li>
+ * <li>{@code benchmark.scopes}: the comma-separated scopes to measure (both by
+ * default),</li>
+ * <li>{@code benchmark.bundles}: the directory with the bundles to
+ * install.</li>
+ * </ul>
+ */
+public final class Main {
+
+    private static final String WHITEBOARD_BUNDLE = "net.yetamine.lectures.osgi.http.whiteboard";
+    private static final String SERVLET_CLASS = WHITEBOARD_BUNDLE + ".SecretServlet";
+
+    private static final String PROTOTYPE_PATH = "/hello/secret";
+    private static final String SINGLETON_PATH = "/hello/secret-singleton";
+
+    private Main() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args
+     *            the arguments (ignored)
+     *
+     * @throws Exception
+     *             if the benchmark fails
+     */
+    public static void main(String... args) throws Exception {
+        final int port = Integer.getInteger("benchmark.port", 8080);
+        final int concurrency = Integer.getInteger("benchmark.concurrency", 16);
+        final var warmup = Duration.ofSeconds(Long.getLong("benchmark.warmup", 5));
+        final var duration = Duration.ofSeconds(Long.getLong("benchmark.duration", 10));
+        final var scopes = System.getProperty("benchmark.scopes", "prototype,singleton").split(",");
+        final var bundles = Path.of(System.getProperty("benchmark.bundles", defaultBundles().toString()));
+
+        final var framework = start(bundles, port);
+        try {
+            final var whiteboard = Stream.of(framework.getBundleContext().getBundles())
+                .filter(bundle -> WHITEBOARD_BUNDLE.equals(bundle.getSymbolicName()))
+                .findFirst()
+                .orElseThrow(() -> new BundleException("Missing bundle " + WHITEBOARD_BUNDLE));
+
+            final var singleton = registerSingleton(whiteboard);
+            try {
+                System.out.format("Concurrency %d, warm-up %s, duration %s%n", concurrency, warmup, duration);
+                for (String scope : scopes) {
+                    final var path = switch (scope.trim()) {
+                        case "prototype" -> PROTOTYPE_PATH;
+                        case "singleton" -> SINGLETON_PATH;
+                        default -> throw new IllegalArgumentException("Unknown scope: " + scope);
+                    };
+
+                    final var test = new LoadTest(URI.create("http://localhost:" + port + path), concurrency);
+                    test.await(Duration.ofSeconds(30));
+                    test.run(warmup);
+                    System.out.format("%-9s %s%n", scope.trim(), test.run(duration));
+                }
+            } finally {
+                singleton.unregister();
+            }
+        } finally {
+            framework.stop();
+            framework.waitForStop(10_000);
+        }
+    }
+
+    private static Framework start(Path bundles, int port) throws BundleException, IOException {
+        final var storage = Files.createTempDirectory("benchmark");
+        final var framework = ServiceLoader.load(FrameworkFactory.class).findFirst().orElseThrow().newFramework(Map.of(
+            Constants.FRAMEWORK_STORAGE, storage.toString(),
+            Constants.FRAMEWORK_STORAGE_CLEAN, Constants.FRAMEWORK_STORAGE_CLEAN_ONFIRSTINIT,
+            "org.osgi.service.http.port", Integer.toString(port)));
+
+        framework.init();
+        try {
+            final var context = framework.getBundleContext();
+            final List<Bundle> installed = new ArrayList<>();
+            try (Stream<Path> files = Files.list(bundles)) {
+                for (Path file : (Iterable<Path>) files.filter(f -> f.toString().endsWith(".jar")).sorted()::iterator) {
+                    installed.add(context.installBundle(file.toUri().toString()));
+                }
+            }
+
+            framework.start();
+            for (Bundle bundle : installed) {
+                if (bundle.getHeaders().get(Constants.FRAGMENT_HOST) == null) {
+                    bundle.start();
+                }
+            }
+        } catch (BundleException | IOException | RuntimeException e) {
+            framework.stop(); // Do not leave the framework threads running
+            throw e;
+        }
+
+        return framework;
+    }
+
+    private static ServiceRegistration<?> registerSingleton(Bundle bundle) throws ReflectiveOperationException {
+        final var servlet = bundle.loadClass(SERVLET_CLASS).getConstructor().newInstance();
+        final var properties = new Hashtable<String, Object>();
+        properties.put("osgi.http.whiteboard.servlet.pattern", SINGLETON_PATH);
+        // Register on behalf of the bundle, so that it sees the same servlet API
+        return bundle.getBundleContext().registerService("javax.servlet.Servlet", servlet, properties);
+    }
+
+    private static Path defaultBundles() throws IOException {
+        try {
+            final var location = Path.of(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            return location.resolveSibling("bundles");
+        } catch (URISyntaxException e) {
+            throw new IOException(e);
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Measures the throughput of Http Whiteboard servlets in an embedded framework.
+ */
+package net.yetamine.lectures.osgi.http.benchmark;
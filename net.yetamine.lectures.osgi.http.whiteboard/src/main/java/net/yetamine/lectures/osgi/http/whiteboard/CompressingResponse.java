@@ -0,0 +1,574 @@
+package net.yetamine.lectures.osgi.http.whiteboard;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.function.Predicate;
+import java.util.zip.Deflater;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Compresses the content of a response when it is worth it.
+ *
+ * <p>
+ * The response keeps the beginning of the content until it exceeds the minimal
+ * size to compress. If the content ends sooner, or the declared length is
+ * smaller, the response is sent as it is. Otherwise the response gets
+ * compressed, unless it has an encoding already, it is not successful, or its
+ * content type is not compressible. The compressor with its buffers is taken
+ * from the pool on the first write and returned when the response finishes.
+ * Flushing does not send the kept content, so that small responses never get
+ * compressed just because of a flush.
+ */
+final class CompressingResponse extends HttpServletResponseWrapper {
+
+    private static final String CONTENT_LENGTH = "Content-Length";
+    private static final String CONTENT_ENCODING = "Content-Encoding";
+    private static final String ETAG = "ETag";
+    private static final String VARY = "Vary";
+
+    private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+    private final String encoding;
+    private final boolean gzip;
+    private final DeflaterPool pool;
+    private final int minSize;
+    private final Predicate<String> compressible;
+
+    private final CompressingStream stream = new CompressingStream();
+    private boolean streamObtained;
+    private PrintWriter writer;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param response
+     *            the response to wrap. It must not be {@code null}.
+     * @param givenEncoding
+     *            the content encoding to use, either {@code gzip} or
+     *            {@code deflate}. It must not be {@code null}.
+     * @param givenPool
+     *            the pool of the compressors for the encoding. It must not be
+     *            {@code null}.
+     * @param givenMinSize
+     *            the minimal size of the content to compress, which must not
+     *            exceed the size of the pending buffer of the pool
+     * @param givenCompressible
+     *            the test of the content types to compress, getting the type
+     *            without parameters in lower case. It must not be {@code null}.
+     */
+    CompressingResponse(HttpServletResponse response, String givenEncoding, DeflaterPool givenPool, int givenMinSize, Predicate<String> givenCompressible) {
+        super(response);
+        encoding = givenEncoding;
+        gzip = CompressionFilter.GZIP.equals(givenEncoding);
+        pool = givenPool;
+        minSize = givenMinSize;
+        compressible = givenCompressible;
+    }
+
+    /**
+     * @see javax.servlet.ServletResponseWrapper#getOutputStream()
+     */
+    @Override
+    public ServletOutputStream getOutputStream() {
+        if (writer != null) {
+            throw new IllegalStateException("The writer has been obtained already.");
+        }
+
+        streamObtained = true;
+        return stream;
+    }
+
+    /**
+     * @see javax.servlet.ServletResponseWrapper#getWriter()
+     */
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            if (streamObtained) {
+                throw new IllegalStateException("The output stream has been obtained already.");
+            }
+
+            writer = new PrintWriter(new OutputStreamWriter(stream, getCharacterEncoding()));
+        }
+
+        return writer;
+    }
+
+    /**
+     * @see javax.servlet.ServletResponseWrapper#setContentLength(int)
+     */
+    @Override
+    public void setContentLength(int len) {
+        setContentLengthLong(len);
+    }
+
+    /**
+     * @see javax.servlet.ServletResponseWrapper#setContentLengthLong(long)
+     */
+    @Override
+    public void setContentLengthLong(long len) {
+        stream.declare(len);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponseWrapper#setHeader(java.lang.String,
+     *      java.lang.String)
+     */
+    @Override
+    public void setHeader(String name, String value) {
+        if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            setContentLengthLong(Long.parseLong(value.trim()));
+        } else {
+            super.setHeader(name, value);
+        }
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponseWrapper#addHeader(java.lang.String,
+     *      java.lang.String)
+     */
+    @Override
+    public void addHeader(String name, String value) {
+        if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            setContentLengthLong(Long.parseLong(value.trim()));
+        } else {
+            super.addHeader(name, value);
+        }
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponseWrapper#setIntHeader(java.lang.String,
+     *      int)
+     */
+    @Override
+    public void setIntHeader(String name, int value) {
+        if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            setContentLengthLong(value);
+        } else {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponseWrapper#addIntHeader(java.lang.String,
+     *      int)
+     */
+    @Override
+    public void addIntHeader(String name, int value) {
+        if (CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            setContentLengthLong(value);
+        } else {
+            super.addIntHeader(name, value);
+        }
+    }
+
+    /**
+     * @see javax.servlet.ServletResponseWrapper#flushBuffer()
+     */
+    @Override
+    public void flushBuffer() throws IOException {
+        if (writer != null) {
+            writer.flush();
+        }
+
+        stream.flush();
+        if (stream.state != State.PENDING) {
+            super.flushBuffer();
+        }
+    }
+
+    /**
+     * @see javax.servlet.ServletResponseWrapper#reset()
+     */
+    @Override
+    public void reset() {
+        super.reset();
+        stream.reset();
+    }
+
+    /**
+     * @see javax.servlet.ServletResponseWrapper#resetBuffer()
+     */
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        stream.resetBuffer();
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponseWrapper#sendError(int,
+     *      java.lang.String)
+     */
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        stream.bypass();
+        super.sendError(sc, msg);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponseWrapper#sendError(int)
+     */
+    @Override
+    public void sendError(int sc) throws IOException {
+        stream.bypass();
+        super.sendError(sc);
+    }
+
+    /**
+     * @see javax.servlet.http.HttpServletResponseWrapper#sendRedirect(java.lang.String)
+     */
+    @Override
+    public void sendRedirect(String location) throws IOException {
+        stream.bypass();
+        super.sendRedirect(location);
+    }
+
+    /**
+     * Completes the content and returns the compressor to the pool.
+     *
+     * @throws IOException
+     *             if the content could not be written
+     */
+    void finish() throws IOException {
+        try {
+            if (writer != null) {
+                writer.flush();
+            }
+        } finally {
+            stream.finish();
+        }
+    }
+
+    /**
+     * State of the content.
+     */
+    private enum State {
+
+        /**
+         * The content is kept until deciding about compressing it.
+         */
+        PENDING,
+
+        /**
+         * The content passes as it is.
+         */
+        IDENTITY,
+
+        /**
+         * The content gets compressed.
+         */
+        COMPRESSING,
+
+        /**
+         * The content is complete.
+         */
+        FINISHED
+    }
+
+    /**
+     * Applies the compression on the content.
+     */
+    private final class CompressingStream extends ServletOutputStream {
+
+        State state = State.PENDING;
+        private DeflaterPool.Compressor compressor;
+        private ServletOutputStream output;
+        private long declaredLength = -1;
+        private long inputLength;
+        private int pending;
+
+        CompressingStream() {
+            // Default constructor
+        }
+
+        /**
+         * @see javax.servlet.ServletOutputStream#isReady()
+         */
+        @Override
+        public boolean isReady() {
+            return true; // The filter does not support asynchronous requests, so the output always blocks
+        }
+
+        /**
+         * @see javax.servlet.ServletOutputStream#setWriteListener(javax.servlet.WriteListener)
+         */
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+            throw new IllegalStateException("Non-blocking output is not supported.");
+        }
+
+        /**
+         * @see java.io.OutputStream#write(int)
+         */
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        /**
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            switch (state) {
+                case PENDING -> {
+                    if (pending + len <= minSize) {
+                        if (compressor == null) {
+                            compressor = pool.acquire();
+                        }
+
+                        System.arraycopy(b, off, compressor.pending, pending, len);
+                        pending += len;
+                        return;
+                    }
+
+                    if (shouldCompress()) {
+                        compress();
+                    } else {
+                        pass();
+                    }
+
+                    write(b, off, len);
+                }
+
+                case IDENTITY -> output().write(b, off, len);
+                case COMPRESSING -> deflate(b, off, len);
+                case FINISHED -> throw new IOException("The output has been closed.");
+            }
+        }
+
+        /**
+         * @see java.io.OutputStream#flush()
+         */
+        @Override
+        public void flush() throws IOException {
+            switch (state) {
+                case IDENTITY -> output().flush();
+                case COMPRESSING -> {
+                    final var deflater = compressor.deflater;
+                    final byte[] buffer = compressor.buffer;
+                    int count;
+                    do { // A full buffer means that more output may be available
+                        count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        output.write(buffer, 0, count);
+                    } while (count == buffer.length);
+
+                    output.flush();
+                }
+
+                case PENDING, FINISHED -> {
+                    // Nothing to send yet, or anymore
+                }
+            }
+        }
+
+        /**
+         * @see java.io.OutputStream#close()
+         */
+        @Override
+        public void close() throws IOException {
+            finish();
+        }
+
+        void declare(long length) {
+            switch (state) {
+                case PENDING -> {
+                    declaredLength = length;
+                    if ((length < minSize) && (pending <= length)) {
+                        try { // Too small to compress, let it pass
+                            pass();
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }
+
+                case IDENTITY -> CompressingResponse.super.setContentLengthLong(length);
+                case COMPRESSING, FINISHED -> {
+                    // The length of the compressed content is unknown
+                }
+            }
+        }
+
+        void bypass() {
+            if (state == State.PENDING) { // The kept content gets discarded anyway
+                pending = 0;
+                release();
+                state = State.IDENTITY;
+            }
+        }
+
+        void reset() {
+            // The headers are gone, so the decision must be done again
+            declaredLength = -1;
+            inputLength = 0;
+            pending = 0;
+            release();
+            if (state != State.FINISHED) {
+                state = State.PENDING;
+            }
+        }
+
+        void resetBuffer() {
+            switch (state) {
+                case PENDING -> pending = 0;
+                case COMPRESSING -> { // Start over with the same headers
+                    compressor.deflater.reset();
+                    compressor.crc.reset();
+                    inputLength = 0;
+                    if (gzip) {
+                        try {
+                            output.write(GZIP_HEADER);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                }
+
+                case IDENTITY, FINISHED -> {
+                    // Nothing kept here
+                }
+            }
+        }
+
+        void finish() throws IOException {
+            try {
+                switch (state) {
+                    case PENDING -> {
+                        if (pending > 0) {
+                            declaredLength = pending;
+                        }
+
+                        pass();
+                    }
+
+                    case COMPRESSING -> {
+                        final var deflater = compressor.deflater;
+                        final byte[] buffer = compressor.buffer;
+                        deflater.finish();
+                        while (!deflater.finished()) {
+                            output.write(buffer, 0, deflater.deflate(buffer));
+                        }
+
+                        if (gzip) {
+                            writeGzipTrailer();
+                        }
+                    }
+
+                    case IDENTITY, FINISHED -> {
+                        // Nothing to add
+                    }
+                }
+            } finally {
+                state = State.FINISHED;
+                release();
+            }
+        }
+
+        private boolean shouldCompress() {
+            if (isCommitted() || containsHeader(CONTENT_ENCODING)) {
+                return false;
+            }
+
+            final int status = getStatus();
+            if ((status < SC_OK) || (status == SC_NO_CONTENT) || (status == SC_PARTIAL_CONTENT) || (status >= SC_MULTIPLE_CHOICES)) {
+                return false;
+            }
+
+            final String contentType = getContentType();
+            if (contentType == null) {
+                return false;
+            }
+
+            final int separator = contentType.indexOf(';');
+            final var mimeType = (separator < 0) ? contentType : contentType.substring(0, separator);
+            return compressible.test(mimeType.trim().toLowerCase(Locale.ROOT));
+        }
+
+        private void compress() throws IOException {
+            CompressingResponse.super.setHeader(CONTENT_ENCODING, encoding);
+            if (getHeaders(VARY).stream().noneMatch(value -> value.toLowerCase(Locale.ROOT).contains("accept-encoding"))) {
+                CompressingResponse.super.addHeader(VARY, "Accept-Encoding");
+            }
+
+            final String tag = getHeader(ETAG);
+            if ((tag != null) && tag.startsWith("\"")) { // The bytes differ from the identity
+                CompressingResponse.super.setHeader(ETAG, "W/" + tag);
+            }
+
+            state = State.COMPRESSING;
+            if (compressor == null) {
+                compressor = pool.acquire();
+            }
+
+            output();
+            if (gzip) {
+                output.write(GZIP_HEADER);
+            }
+
+            if (pending > 0) {
+                deflate(compressor.pending, 0, pending);
+                pending = 0;
+            }
+        }
+
+        private void pass() throws IOException {
+            state = State.IDENTITY;
+            if (declaredLength >= 0) {
+                CompressingResponse.super.setContentLengthLong(declaredLength);
+            }
+
+            if (pending > 0) {
+                output().write(compressor.pending, 0, pending);
+                pending = 0;
+            }
+
+            release();
+        }
+
+        private void deflate(byte[] b, int off, int len) throws IOException {
+            if (gzip) {
+                compressor.crc.update(b, off, len);
+            }
+
+            inputLength += len;
+            final var deflater = compressor.deflater;
+            final byte[] buffer = compressor.buffer;
+            deflater.setInput(b, off, len);
+            while (!deflater.needsInput()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+        }
+
+        private void writeGzipTrailer() throws IOException {
+            final long crc = compressor.crc.getValue();
+            final long size = inputLength; // Modulo 2^32 as the format requires
+            output.write(new byte[] {
+                (byte) crc, (byte) (crc >>> 8), (byte) (crc >>> 16), (byte) (crc >>> 24),
+                (byte) size, (byte) (size >>> 8), (byte) (size >>> 16), (byte) (size >>> 24)
+            });
+        }
+
+        private ServletOutputStream output() throws IOException {
+            if (output == null) {
+                output = CompressingResponse.super.getOutputStream();
+            }
+
+            return output;
+        }
+
+        private void release() {
+            if (compressor != null) {
+                final var released = compressor;
+                compressor = null;
+                pool.release(released);
+            }
+        }
+    }
+}
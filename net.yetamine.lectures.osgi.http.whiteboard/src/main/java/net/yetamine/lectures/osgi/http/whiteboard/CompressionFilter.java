@@ -0,0 +1,225 @@
+package net.yetamine.lectures.osgi.http.whiteboard;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+
+/**
+ * Compresses the responses with gzip or deflate encoding, whichever the client
+ * prefers according to {@code Accept-Encoding}.
+ *
+ * <p>
+ * Only the responses worth it get compressed: the content must be at least
+ * {@code minSize} bytes long, its type must be compressible, and it must not
+ * have any encoding already, like the precompressed variants of the resources
+ * have. Requests for a range and {@code HEAD} requests pass as they are, so do
+ * unsuccessful responses. A compressed response gets {@code Vary} and its
+ * strong {@code ETag} becomes weak, because its bytes differ.
+ *
+ * <p>
+ * Each {@link java.util.zip.Deflater} holds native memory, so the filter takes
+ * them from a bounded pool together with the buffers for the output and for
+ * the beginning of the content, which waits for the decision about the
+ * compression. The filter does not support asynchronous requests.
+ *
+ * <p>
+ * The optional configuration may specify:
+ *
+ * <ul>
+ * <li>{@code minSize}: the minimal size of the content to compress (1024 by
+ * default),</li>
+ * <li>{@code level}: the compression level (6 by default),</li>
+ * <li>{@code poolSize}: the number of idle compressors to keep for each
+ * encoding (twice the number of processors by default),</li>
+ * <li>{@code bufferSize}: the size of the output buffer (8192 by
+ * default),</li>
+ * <li>{@code mimeTypes}: the comma-separated compressible types, where a type
+ * ending with {@code /} stands for all its subtypes (text, JSON, JavaScript,
+ * XML and SVG by default).</li>
+ * </ul>
+ */
+@Component(
+    service = Filter.class,
+    configurationPid = "net.yetamine.lectures.osgi.http.whiteboard.compression",
+    configurationPolicy = ConfigurationPolicy.OPTIONAL,
+    property = {
+        "osgi.http.whiteboard.filter.pattern=/hello/*"
+    })
+public final class CompressionFilter implements Filter {
+
+    /**
+     * Name of the gzip encoding.
+     */
+    static final String GZIP = "gzip";
+
+    /**
+     * Name of the deflate encoding.
+     */
+    static final String DEFLATE = "deflate";
+
+    private static final String DEFAULT_MIME_TYPES = "text/,application/json,application/javascript,application/xml,image/svg+xml";
+
+    private final int minSize;
+    private final List<String> mimeTypes;
+    private final DeflaterPool gzipPool;
+    private final DeflaterPool deflatePool;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param configuration
+     *            the configuration. It must not be {@code null}.
+     */
+    @Activate
+    public CompressionFilter(Map<String, ?> configuration) {
+        minSize = Integer.parseInt(property(configuration, "minSize", "1024"));
+        final int level = Integer.parseInt(property(configuration, "level", "6"));
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int poolSize = Integer.parseInt(property(configuration, "poolSize", Integer.toString(processors * 2)));
+        final int bufferSize = Integer.parseInt(property(configuration, "bufferSize", "8192"));
+        if ((minSize < 0) || (poolSize < 1) || (bufferSize < 1)) {
+            throw new IllegalArgumentException("Invalid compression settings.");
+        }
+
+        mimeTypes = Arrays.stream(property(configuration, "mimeTypes", DEFAULT_MIME_TYPES).split(","))
+            .map(type -> type.trim().toLowerCase(Locale.ROOT))
+            .filter(type -> !type.isEmpty())
+            .toList();
+
+        gzipPool = new DeflaterPool(poolSize, level, true, bufferSize, minSize);
+        deflatePool = new DeflaterPool(poolSize, level, false, bufferSize, minSize);
+    }
+
+    /**
+     * Releases the idle compressors.
+     */
+    @Deactivate
+    void deactivate() {
+        gzipPool.clear();
+        deflatePool.clear();
+    }
+
+    /**
+     * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+     */
+    @Override
+    public void init(FilterConfig filterConfig) {
+        // Do nothing
+    }
+
+    /**
+     * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest,
+     *      javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        if (!(request instanceof HttpServletRequest httpRequest) || !(response instanceof HttpServletResponse httpResponse)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final String encoding = encoding(httpRequest);
+        if ((encoding == null) || "HEAD".equals(httpRequest.getMethod()) || (httpRequest.getHeader("Range") != null)) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        final var pool = GZIP.equals(encoding) ? gzipPool : deflatePool;
+        final var compressing = new CompressingResponse(httpResponse, encoding, pool, minSize, this::isCompressible);
+        try {
+            chain.doFilter(request, compressing);
+        } finally {
+            compressing.finish();
+        }
+    }
+
+    /**
+     * @see javax.servlet.Filter#destroy()
+     */
+    @Override
+    public void destroy() {
+        // Do nothing
+    }
+
+    private boolean isCompressible(String mimeType) {
+        for (String type : mimeTypes) {
+            if (type.endsWith("/") ? mimeType.startsWith(type) : mimeType.equals(type)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Chooses the encoding with the highest quality, preferring gzip when the
+     * qualities are the same.
+     *
+     * @param request
+     *            the request. It must not be {@code null}.
+     *
+     * @return the encoding, or {@code null} if none is acceptable
+     */
+    private static String encoding(HttpServletRequest request) {
+        final String header = request.getHeader("Accept-Encoding");
+        if (header == null) {
+            return null;
+        }
+
+        double gzip = -1;
+        double deflate = -1;
+        double any = -1;
+        for (String item : header.split(",")) {
+            final String[] parts = item.split(";");
+            final var coding = parts[0].trim().toLowerCase(Locale.ROOT);
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                final var parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+
+            switch (coding) {
+                case GZIP, "x-gzip" -> gzip = Math.max(gzip, quality);
+                case DEFLATE -> deflate = Math.max(deflate, quality);
+                case "*" -> any = Math.max(any, quality);
+                default -> {
+                    // Not supported
+                }
+            }
+        }
+
+        // The wildcard applies to the codings not listed explicitly
+        final double gzipQuality = (gzip < 0) ? any : gzip;
+        final double deflateQuality = (deflate < 0) ? any : deflate;
+        if ((gzipQuality <= 0) && (deflateQuality <= 0)) {
+            return null;
+        }
+
+        return (gzipQuality >= deflateQuality) ? GZIP : DEFLATE;
+    }
+
+    private static String property(Map<String, ?> configuration, String name, String defaultValue) {
+        return Objects.toString(configuration.get(name), defaultValue).trim();
+    }
+}
@@ -0,0 +1,103 @@
+package net.yetamine.lectures.osgi.http.whiteboard;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Keeps idle {@link Deflater} instances with their buffers for reuse.
+ *
+ * <p>
+ * A {@link Deflater} holds native memory, which is expensive to allocate and
+ * released only when the instance ends, hence the pool reuses them. The pool
+ * never blocks: when no idle instance is available, it creates a new one, and
+ * when the pool is full already, a returned instance ends immediately. So the
+ * pool bounds the retained instances, not the instances in use.
+ */
+final class DeflaterPool {
+
+    private final BlockingQueue<Compressor> idle;
+    private final int level;
+    private final boolean nowrap;
+    private final int bufferSize;
+    private final int pendingSize;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param capacity
+     *            the maximal number of idle instances. It must be positive.
+     * @param givenLevel
+     *            the compression level
+     * @param givenNowrap
+     *            {@code true} for the raw deflate format, which gzip needs,
+     *            {@code false} for the zlib format
+     * @param givenBufferSize
+     *            the size of the output buffer. It must be positive.
+     * @param givenPendingSize
+     *            the size of the buffer for the content before compressing. It
+     *            must not be negative.
+     */
+    DeflaterPool(int capacity, int givenLevel, boolean givenNowrap, int givenBufferSize, int givenPendingSize) {
+        if (givenBufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive.");
+        }
+
+        idle = new ArrayBlockingQueue<>(capacity);
+        level = givenLevel;
+        nowrap = givenNowrap;
+        bufferSize = givenBufferSize;
+        pendingSize = givenPendingSize;
+        new Deflater(level, nowrap).end(); // Fail early on an invalid level
+    }
+
+    /**
+     * @return an idle instance, or a new one if none is idle
+     */
+    Compressor acquire() {
+        final Compressor result = idle.poll();
+        return (result != null) ? result : new Compressor(new Deflater(level, nowrap), bufferSize, pendingSize);
+    }
+
+    /**
+     * Returns an instance to the pool.
+     *
+     * @param compressor
+     *            the instance to return. It must not be {@code null} and it
+     *            must not be used anymore.
+     */
+    void release(Compressor compressor) {
+        compressor.deflater.reset();
+        compressor.crc.reset();
+        if (!idle.offer(compressor)) {
+            compressor.deflater.end();
+        }
+    }
+
+    /**
+     * Ends all idle instances.
+     */
+    void clear() {
+        for (Compressor compressor; (compressor = idle.poll()) != null;) {
+            compressor.deflater.end();
+        }
+    }
+
+    /**
+     * Groups a {@link Deflater} with the buffers for a response.
+     */
+    static final class Compressor {
+
+        final Deflater deflater;
+        final CRC32 crc = new CRC32();
+        final byte[] buffer;
+        final byte[] pending;
+
+        Compressor(Deflater givenDeflater, int bufferSize, int pendingSize) {
+            deflater = givenDeflater;
+            buffer = new byte[bufferSize];
+            pending = new byte[pendingSize];
+        }
+    }
+}
@@ -1,13 +1,359 @@
 package net.yetamine.lectures.osgi.http.whiteboard;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.Servlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
 
+/**
+ * Serves the static resources of this bundle.
+ *
+ * <p>
+ * Unlike the default resource handling of Http Whiteboard, this servlet keeps
+ * small resources in memory, so that serving them means just copying a byte
+ * array to the response. The cache is bounded by the total size given by
+ * {@code maxCacheSize}, and it accepts only resources up to
+ * {@code maxFileSize} bytes; larger resources are streamed from the bundle.
+ * When a resource has a variant with {@code .gz} suffix, the variant is sent
+ * to clients accepting gzip encoding with its own {@code ETag}, which has
+ * {@code -gz} suffix, because its bytes differ. The variant follows the same
+ * rules as any resource: it is kept in memory with its small resource if small
+ * enough, otherwise it is streamed from the bundle. The servlet supports
+ * conditional requests using {@code ETag} and {@code Last-Modified}, and
+ * single byte ranges of the identity representation. A resource with unknown
+ * length is streamed until its end without {@code Content-Length} and it does
+ * not support ranges.
+ */
 @Component(
-    service = HttpResources.class,
+    service = Servlet.class,
+    configurationPid = "net.yetamine.lectures.osgi.http.whiteboard.resources",
+    configurationPolicy = ConfigurationPolicy.OPTIONAL,
     property = {
-        "osgi.http.whiteboard.resource.pattern=/hello/*",
-        "osgi.http.whiteboard.resource.prefix=/resources"
+        "osgi.http.whiteboard.servlet.pattern=/hello/*"
     })
-public final class HttpResources {
-    // Nothing there, serves just to specify the resources
+public final class HttpResources extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String PREFIX = "/resources";
+    private static final String GZIP_SUFFIX = ".gz";
+
+    private final transient Bundle bundle;
+    private final transient Map<String, Resource> cache = new ConcurrentHashMap<>();
+    private final transient AtomicLong cacheSize = new AtomicLong();
+    private final long maxCacheSize;
+    private final long maxFileSize;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param context
+     *            the context of the bundle. It must not be {@code null}.
+     * @param configuration
+     *            the configuration. It must not be {@code null}.
+     */
+    @Activate
+    public HttpResources(BundleContext context, Map<String, ?> configuration) {
+        bundle = context.getBundle();
+        maxCacheSize = Long.parseLong(Objects.toString(configuration.get("maxCacheSize"), "1048576").trim());
+        maxFileSize = Long.parseLong(Objects.toString(configuration.get("maxFileSize"), "65536").trim());
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        final String path = path(req.getPathInfo());
+        final Resource resource = (path != null) ? resource(path) : null;
+        if (resource == null) {
+            resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        final String range = (resource.length < 0) ? null : req.getHeader("Range");
+        final String ifRange = req.getHeader("If-Range");
+        final boolean ranged = (range != null) && ((ifRange == null) || ifRange.equals(resource.tag));
+        final boolean gzip = !ranged && resource.hasGzip() && acceptsGzip(req);
+        final String tag = gzip ? resource.gzipTag() : resource.tag;
+
+        resp.setHeader("ETag", tag);
+        resp.setDateHeader("Last-Modified", resource.lastModified);
+        resp.setHeader("Accept-Ranges", (resource.length < 0) ? "none" : "bytes");
+        if (resource.hasGzip()) {
+            resp.setHeader("Vary", "Accept-Encoding");
+        }
+
+        if (notModified(req, resource, tag)) {
+            resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        final String contentType = getServletContext().getMimeType(path);
+        if (contentType != null) {
+            resp.setContentType(contentType);
+        }
+
+        if (ranged) {
+            final long[] bounds = range(range, resource.length);
+            if (bounds == null) {
+                resp.setHeader("Content-Range", "bytes */" + resource.length);
+                resp.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+
+            final long length = bounds[1] - bounds[0] + 1;
+            resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            resp.setHeader("Content-Range", "bytes " + bounds[0] + '-' + bounds[1] + '/' + resource.length);
+            resp.setContentLengthLong(length);
+            resource.write(resp.getOutputStream(), bounds[0], length);
+            return;
+        }
+
+        if (gzip) {
+            resp.setHeader("Content-Encoding", "gzip");
+            if (resource.gzipLength >= 0) {
+                resp.setContentLengthLong(resource.gzipLength);
+            }
+
+            resource.writeGzip(resp.getOutputStream());
+            return;
+        }
+
+        if (resource.length < 0) {
+            resource.write(resp.getOutputStream(), 0, -1); // Until the end, without Content-Length
+            return;
+        }
+
+        resp.setContentLengthLong(resource.length);
+        resource.write(resp.getOutputStream(), 0, resource.length);
+    }
+
+    private Resource resource(String path) throws IOException {
+        final Resource cached = cache.get(path);
+        if (cached != null) {
+            return cached;
+        }
+
+        final URL entry = bundle.getEntry(PREFIX + path);
+        if ((entry == null) || path.endsWith(GZIP_SUFFIX)) {
+            return null;
+        }
+
+        final long length = entry.openConnection().getContentLengthLong();
+        final long lastModified = bundle.getLastModified();
+        final String tag = String.format("\"%x-%x\"", lastModified, length);
+        final URL gzipEntry = bundle.getEntry(PREFIX + path + GZIP_SUFFIX);
+        final long gzipLength = (gzipEntry != null) ? gzipEntry.openConnection().getContentLengthLong() : -1;
+        if ((length < 0) || (length > maxFileSize)) { // Stream both representations from the bundle
+            return new Resource(entry, length, null, gzipEntry, gzipLength, null, lastModified, tag);
+        }
+
+        final byte[] content = read(entry);
+        final byte[] gzip = ((gzipLength >= 0) && (gzipLength <= maxFileSize)) ? read(gzipEntry) : null;
+        final long cachedGzipLength = (gzip != null) ? gzip.length : gzipLength;
+        final Resource result = new Resource(entry, content.length, content, gzipEntry, cachedGzipLength, gzip, lastModified, tag);
+
+        final long size = result.size();
+        if (cacheSize.addAndGet(size) > maxCacheSize) {
+            cacheSize.addAndGet(-size); // No room, do not cache
+            return result;
+        }
+
+        final Resource previous = cache.putIfAbsent(path, result);
+        if (previous != null) {
+            cacheSize.addAndGet(-size);
+            return previous;
+        }
+
+        return result;
+    }
+
+    private static String path(String pathInfo) {
+        final String result = ((pathInfo == null) || pathInfo.endsWith("/"))
+            ? Objects.toString(pathInfo, "/") + "index.html"
+            : pathInfo;
+
+        return (result.contains("/../") || result.endsWith("/..") || result.contains("\\")) ? null : result;
+    }
+
+    private static boolean notModified(HttpServletRequest req, Resource resource, String tag) {
+        final String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String candidate : ifNoneMatch.split(",")) {
+                final String value = candidate.trim();
+                if ("*".equals(value) || value.equals(tag) || value.equals("W/" + tag)) {
+                    return true;
+                }
+            }
+
+            return false; // Ignore If-Modified-Since then
+        }
+
+        final long ifModifiedSince = req.getDateHeader("If-Modified-Since");
+        return (ifModifiedSince >= 0) && (resource.lastModified / 1000 <= ifModifiedSince / 1000);
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest req) {
+        final String acceptEncoding = req.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        for (String coding : acceptEncoding.split(",")) {
+            final String[] parts = coding.trim().split(";");
+            if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+                return (parts.length < 2) || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+
+        return false;
+    }
+
+    private static long[] range(String header, long length) {
+        if (!header.startsWith("bytes=") || (header.indexOf(',') >= 0)) {
+            return null; // Support just a single range
+        }
+
+        final String spec = header.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+
+        try {
+            final long first;
+            final long last;
+            if (dash == 0) { // Suffix range
+                final long suffix = Long.parseLong(spec.substring(1));
+                first = Math.max(length - suffix, 0);
+                last = length - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = (dash == spec.length() - 1) ? length - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+            }
+
+            return ((first <= last) && (first < length)) ? new long[] { first, last } : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static byte[] read(URL url) throws IOException {
+        try (InputStream input = url.openStream()) {
+            return input.readAllBytes();
+        }
+    }
+
+    /**
+     * Represents a resource, either cached or to be streamed.
+     */
+    private static final class Resource {
+
+        final URL url;
+        final long length;
+        final byte[] content;
+        final URL gzipUrl;
+        final long gzipLength;
+        final byte[] gzip;
+        final long lastModified;
+        final String tag;
+
+        Resource(URL givenUrl, long givenLength, byte[] givenContent, URL givenGzipUrl, long givenGzipLength, byte[] givenGzip, long givenLastModified, String givenTag) {
+            url = givenUrl;
+            length = givenLength;
+            content = givenContent;
+            gzipUrl = givenGzipUrl;
+            gzipLength = givenGzipLength;
+            gzip = givenGzip;
+            lastModified = givenLastModified;
+            tag = givenTag;
+        }
+
+        boolean hasGzip() {
+            return (gzipUrl != null);
+        }
+
+        String gzipTag() {
+            return tag.substring(0, tag.length() - 1) + "-gz\"";
+        }
+
+        long size() {
+            return content.length + ((gzip != null) ? gzip.length : 0);
+        }
+
+        /**
+         * Writes the whole gzip variant.
+         *
+         * @param output
+         *            the output. It must not be {@code null}.
+         *
+         * @throws IOException
+         *             if the content could not be written
+         */
+        void writeGzip(OutputStream output) throws IOException {
+            if (gzip != null) {
+                output.write(gzip);
+                return;
+            }
+
+            try (InputStream input = gzipUrl.openStream()) {
+                input.transferTo(output);
+            }
+        }
+
+        /**
+         * Writes the content.
+         *
+         * @param output
+         *            the output. It must not be {@code null}.
+         * @param offset
+         *            the offset of the first byte to write
+         * @param count
+         *            the number of bytes to write, or a negative number to
+         *            write all until the end
+         *
+         * @throws IOException
+         *             if the content could not be written
+         */
+        void write(OutputStream output, long offset, long count) throws IOException {
+            if (count < 0) {
+                try (InputStream input = url.openStream()) {
+                    input.skipNBytes(offset);
+                    input.transferTo(output);
+                }
+
+                return;
+            }
+
+            if (content != null) {
+                output.write(content, (int) offset, (int) count);
+                return;
+            }
+
+            try (InputStream input = url.openStream()) {
+                input.skipNBytes(offset);
+                final byte[] buffer = new byte[8192];
+                for (long remaining = count; remaining > 0;) {
+                    final int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        break;
+                    }
+
+                    output.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+    }
 }
@@ -0,0 +1,351 @@
+package net.yetamine.lectures.osgi.jaxrs.whiteboard;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+
+/**
+ * Admits the requests according to the rate limits for each client and for all
+ * clients together, and limits the number of requests in progress.
+ *
+ * <p>
+ * A request must get a token from the bucket of its client first, then from
+ * the global bucket, and finally it must fit in the limit of requests in
+ * progress. Requests exceeding a rate limit get {@code 429 Too Many Requests},
+ * requests exceeding the limit of requests in progress get
+ * {@code 503 Service Unavailable}, both with the configured
+ * {@code Retry-After}. A rejected request returns the tokens that it took
+ * already.
+ *
+ * <p>
+ * An admitted request gets a lease of its place among the requests in
+ * progress, which it returns in the response filter. The response filters run
+ * for every response, including aborted requests and mapped exceptions, but
+ * not for the exceptions that propagate to the container. Therefore the lease
+ * is a request attribute as well, and {@link AdmissionRelease} returns it when
+ * the servlet request completes. Returning a lease twice has no effect.
+ *
+ * <p>
+ * The buckets do not use any lock. The client buckets reside in a concurrent
+ * map, where the clients do not contend with each other, and the global bucket
+ * is split in stripes, each with the respective part of the rate and burst. A
+ * request takes a token from the stripe of its thread or, if that one is empty,
+ * from the other ones, so that the global limit rejects a request only when
+ * all stripes are empty. When the map reaches the maximal number of clients,
+ * the full buckets are removed, because they do not differ from new ones. If
+ * no bucket is full, the clients without a bucket share a single overflow
+ * bucket with the limits of a client until the map has room again.
+ *
+ * <p>
+ * The optional configuration may specify:
+ *
+ * <ul>
+ * <li>{@code rate} and {@code burst}: the global rate in requests per second
+ * and the burst size (1000 and the rate by default),</li>
+ * <li>{@code clientRate} and {@code clientBurst}: the same for each client (100
+ * and the rate by default),</li>
+ * <li>{@code clientHeader}: the header identifying the client, e.g.,
+ * {@code X-Forwarded-For} behind a trusted proxy (none by default, so that the
+ * remote address identifies the client),</li>
+ * <li>{@code maxInFlight}: the maximal number of requests in progress (256 by
+ * default),</li>
+ * <li>{@code maxClients}: the maximal number of client buckets to keep (10000
+ * by default),</li>
+ * <li>{@code retryAfter}: the value of {@code Retry-After} in seconds (1 by
+ * default),</li>
+ * <li>{@code stripes}: the number of stripes of the global bucket (rounded up
+ * to a power of two, by default the number of processors).</li>
+ * </ul>
+ */
+@PreMatching
+@Component(
+    service = { AdmissionControl.class, ContainerRequestFilter.class, ContainerResponseFilter.class },
+    configurationPid = "net.yetamine.lectures.osgi.jaxrs.whiteboard.admission",
+    configurationPolicy = ConfigurationPolicy.OPTIONAL,
+    property = {
+        "osgi.jaxrs.extension=true",
+        "osgi.jaxrs.name=" + AdmissionControl.NAME
+    })
+public final class AdmissionControl implements ContainerRequestFilter, ContainerResponseFilter {
+
+    /**
+     * Name of the extension for selecting it.
+     */
+    static final String NAME = "net.yetamine.lectures.osgi.jaxrs.whiteboard.admission";
+
+    /**
+     * Name of the request property, and the servlet request attribute, with
+     * the {@link Lease} of an admitted request.
+     */
+    static final String LEASE_PROPERTY = AdmissionControl.class.getName() + ".lease";
+
+    private static final long SWEEP_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
+    private final double clientRate;
+    private final int clientBurst;
+    private final String clientHeader;
+    private final int maxClients;
+    private final int maxInFlight;
+    private final String retryAfter;
+
+    private final TokenBucket[] stripes;
+    private final TokenBucket overflow;
+    private final Map<String, TokenBucket> clients = new ConcurrentHashMap<>();
+    private final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejectedClient = new LongAdder();
+    private final LongAdder rejectedGlobal = new LongAdder();
+    private final LongAdder rejectedInFlight = new LongAdder();
+
+    @Context
+    private HttpServletRequest request;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param configuration
+     *            the configuration. It must not be {@code null}.
+     */
+    @Activate
+    public AdmissionControl(Map<String, ?> configuration) {
+        final double rate = Double.parseDouble(property(configuration, "rate", "1000"));
+        final int burst = Integer.parseInt(property(configuration, "burst", Long.toString(Math.round(rate))));
+        clientRate = Double.parseDouble(property(configuration, "clientRate", "100"));
+        clientBurst = Integer.parseInt(property(configuration, "clientBurst", Long.toString(Math.round(clientRate))));
+        clientHeader = property(configuration, "clientHeader", "");
+        maxClients = Integer.parseInt(property(configuration, "maxClients", "10000"));
+        maxInFlight = Integer.parseInt(property(configuration, "maxInFlight", "256"));
+        retryAfter = Long.toString(Long.parseLong(property(configuration, "retryAfter", "1")));
+
+        final int processors = Runtime.getRuntime().availableProcessors();
+        final int count = Integer.parseInt(property(configuration, "stripes", Integer.toString(processors)));
+        if ((rate <= 0) || (burst < 1) || (clientRate <= 0) || (clientBurst < 1) || (maxClients < 1) || (maxInFlight < 1) || (count < 1)) {
+            throw new IllegalArgumentException("Invalid admission limits.");
+        }
+
+        // Each stripe needs a token at least, hence no more stripes than the burst
+        final int size = Math.min(Integer.highestOneBit(count * 2 - 1), Integer.highestOneBit(burst));
+        final long now = System.nanoTime();
+        stripes = new TokenBucket[size];
+        for (int i = 0; i < size; i++) { // Distribute the remainder, so that no token gets lost
+            stripes[i] = new TokenBucket(rate / size, burst / size + ((i < burst % size) ? 1 : 0), now);
+        }
+
+        overflow = new TokenBucket(clientRate, clientBurst, now);
+    }
+
+    /**
+     * @see javax.ws.rs.container.ContainerRequestFilter#filter(javax.ws.rs.container.ContainerRequestContext)
+     */
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        final long now = System.nanoTime();
+        final TokenBucket client = client(requestContext, now);
+        if (!client.tryAcquire(now)) {
+            rejectedClient.increment();
+            requestContext.abortWith(reject(Response.Status.TOO_MANY_REQUESTS));
+            return;
+        }
+
+        final TokenBucket global = global(now);
+        if (global == null) {
+            client.release();
+            rejectedGlobal.increment();
+            requestContext.abortWith(reject(Response.Status.TOO_MANY_REQUESTS));
+            return;
+        }
+
+        final int current = inFlight.incrementAndGet();
+        if (current > maxInFlight) {
+            inFlight.decrementAndGet();
+            global.release();
+            client.release();
+            rejectedInFlight.increment();
+            requestContext.abortWith(reject(Response.Status.SERVICE_UNAVAILABLE));
+            return;
+        }
+
+        if (current > peakInFlight.get()) {
+            peakInFlight.accumulateAndGet(current, Math::max);
+        }
+
+        admitted.increment();
+        final var lease = new Lease(inFlight);
+        requestContext.setProperty(LEASE_PROPERTY, lease);
+        request.setAttribute(LEASE_PROPERTY, lease); // Let the servlet request completion release it too
+    }
+
+    /**
+     * @see javax.ws.rs.container.ContainerResponseFilter#filter(javax.ws.rs.container.ContainerRequestContext,
+     *      javax.ws.rs.container.ContainerResponseContext)
+     */
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        if (requestContext.getProperty(LEASE_PROPERTY) instanceof Lease lease) {
+            lease.release();
+        }
+    }
+
+    /**
+     * @return the number of admitted requests
+     */
+    public long admitted() {
+        return admitted.sum();
+    }
+
+    /**
+     * @return the number of requests rejected by the limit of their client
+     */
+    public long rejectedClient() {
+        return rejectedClient.sum();
+    }
+
+    /**
+     * @return the number of requests rejected by the global limit
+     */
+    public long rejectedGlobal() {
+        return rejectedGlobal.sum();
+    }
+
+    /**
+     * @return the number of requests rejected by the limit of requests in
+     *         progress
+     */
+    public long rejectedInFlight() {
+        return rejectedInFlight.sum();
+    }
+
+    /**
+     * @return the number of admitted requests in progress
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return the highest number of admitted requests in progress
+     */
+    public int peakInFlight() {
+        return peakInFlight.get();
+    }
+
+    /**
+     * @return the number of tracked clients
+     */
+    public int clients() {
+        return clients.size();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return String.format("AdmissionControl[admitted=%d, rejectedClient=%d, rejectedGlobal=%d, rejectedInFlight=%d, inFlight=%d, clients=%d]",
+            admitted(), rejectedClient(), rejectedGlobal(), rejectedInFlight(), inFlight(), clients());
+    }
+
+    private TokenBucket client(ContainerRequestContext requestContext, long now) {
+        final String id = clientId(requestContext);
+        final TokenBucket result = clients.get(id);
+        if (result != null) {
+            return result;
+        }
+
+        if (clients.size() >= maxClients) {
+            sweep(now);
+            if (clients.size() >= maxClients) {
+                return overflow; // No room, share the bucket until some appears
+            }
+        }
+
+        return clients.computeIfAbsent(id, key -> new TokenBucket(clientRate, clientBurst, now));
+    }
+
+    private String clientId(ContainerRequestContext requestContext) {
+        if (!clientHeader.isEmpty()) {
+            final String value = requestContext.getHeaderString(clientHeader);
+            if (value != null) {
+                return value;
+            }
+        }
+
+        return Objects.toString(request.getRemoteAddr(), "");
+    }
+
+    private void sweep(long now) {
+        final long scheduled = nextSweep.get();
+        if ((now - scheduled >= 0) && nextSweep.compareAndSet(scheduled, now + SWEEP_INTERVAL)) {
+            // A request may still use a removed bucket, which admits a few more requests at most
+            clients.values().removeIf(bucket -> bucket.isFull(now));
+        }
+    }
+
+    private TokenBucket global(long now) {
+        final int mask = stripes.length - 1;
+        final int index = (int) Thread.currentThread().threadId() & mask;
+        for (int i = 0; i < stripes.length; i++) {
+            final TokenBucket stripe = stripes[(index + i) & mask];
+            if (stripe.tryAcquire(now)) {
+                return stripe;
+            }
+        }
+
+        return null; // All stripes are empty
+    }
+
+    private Response reject(Response.Status status) {
+        return Response.status(status)
+            .header(HttpHeaders.RETRY_AFTER, retryAfter)
+            .type(MediaType.TEXT_PLAIN_TYPE)
+            .entity(status.getReasonPhrase())
+            .build();
+    }
+
+    private static String property(Map<String, ?> configuration, String name, String defaultValue) {
+        return Objects.toString(configuration.get(name), defaultValue).trim();
+    }
+
+    /**
+     * Holds the place of an admitted request among the requests in progress.
+     */
+    static final class Lease {
+
+        private final AtomicInteger inFlight;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Lease(AtomicInteger givenInFlight) {
+            inFlight = givenInFlight;
+        }
+
+        /**
+         * Returns the place, unless returned already.
+         */
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package net.yetamine.lectures.osgi.jaxrs.whiteboard;
+
+import java.io.IOException;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import org.osgi.service.component.annotations.Component;
+
+/**
+ * Returns the lease of a request admitted by {@link AdmissionControl} when the
+ * servlet request completes, so that the lease returns even when the request
+ * fails with an exception that no JAX-RS response filter sees.
+ *
+ * <p>
+ * The filter applies to all servlet contexts, because the context of the
+ * JAX-RS whiteboard depends on its implementation. A synchronous request
+ * completes when the filter chain returns, an asynchronous one when its
+ * asynchronous context completes, fails or times out. The requests without a
+ * lease just pass.
+ */
+@Component(
+    service = Filter.class,
+    property = {
+        "osgi.http.whiteboard.filter.pattern=/*",
+        "osgi.http.whiteboard.context.select=(osgi.http.whiteboard.context.name=*)"
+    })
+public final class AdmissionRelease implements Filter {
+
+    /**
+     * Creates a new instance.
+     */
+    public AdmissionRelease() {
+        // Default constructor
+    }
+
+    /**
+     * @see javax.servlet.Filter#init(javax.servlet.FilterConfig)
+     */
+    @Override
+    public void init(FilterConfig filterConfig) {
+        // Do nothing
+    }
+
+    /**
+     * @see javax.servlet.Filter#doFilter(javax.servlet.ServletRequest,
+     *      javax.servlet.ServletResponse, javax.servlet.FilterChain)
+     */
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.getAttribute(AdmissionControl.LEASE_PROPERTY) instanceof AdmissionControl.Lease lease) {
+                if (request.isAsyncStarted()) {
+                    request.getAsyncContext().addListener(new Release(lease));
+                } else {
+                    lease.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * @see javax.servlet.Filter#destroy()
+     */
+    @Override
+    public void destroy() {
+        // Do nothing
+    }
+
+    /**
+     * Releases the lease when an asynchronous request ends.
+     */
+    private static final class Release implements AsyncListener {
+
+        private final AdmissionControl.Lease lease;
+
+        Release(AdmissionControl.Lease givenLease) {
+            lease = givenLease;
+        }
+
+        /**
+         * @see javax.servlet.AsyncListener#onComplete(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onComplete(AsyncEvent event) {
+            lease.release();
+        }
+
+        /**
+         * @see javax.servlet.AsyncListener#onTimeout(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            lease.release();
+        }
+
+        /**
+         * @see javax.servlet.AsyncListener#onError(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onError(AsyncEvent event) {
+            lease.release();
+        }
+
+        /**
+         * @see javax.servlet.AsyncListener#onStartAsync(javax.servlet.AsyncEvent)
+         */
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            event.getAsyncContext().addListener(this); // Dispatched again, keep listening
+        }
+    }
+}
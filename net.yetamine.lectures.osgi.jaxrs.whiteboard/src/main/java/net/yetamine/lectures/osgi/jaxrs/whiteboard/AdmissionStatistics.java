@@ -0,0 +1,32 @@
+package net.yetamine.lectures.osgi.jaxrs.whiteboard;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Exposes the statistics of {@link AdmissionControl}.
+ */
+@Path("/rest/admission")
+@Component(service = AdmissionStatistics.class, property = { "osgi.jaxrs.resource=true" })
+public final class AdmissionStatistics {
+
+    @Reference
+    private AdmissionControl admission;
+
+    @Path("/")
+    @GET
+    @Produces("text/plain")
+    public String statistics() {
+        return String.format("admitted=%d%nrejectedClient=%d%nrejectedGlobal=%d%nrejectedInFlight=%d%ninFlight=%d%npeakInFlight=%d%nclients=%d%n",
+            admission.admitted(),
+            admission.rejectedClient(),
+            admission.rejectedGlobal(),
+            admission.rejectedInFlight(),
+            admission.inFlight(),
+            admission.peakInFlight(),
+            admission.clients());
+    }
+}
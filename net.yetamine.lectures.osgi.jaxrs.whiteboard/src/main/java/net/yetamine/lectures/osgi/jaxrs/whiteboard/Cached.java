@@ -0,0 +1,18 @@
+package net.yetamine.lectures.osgi.jaxrs.whiteboard;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import javax.ws.rs.NameBinding;
+
+/**
+ * Marks resource methods whose responses depend on the request path and the
+ * media type only, so that {@link ResponseCache} may cache them.
+ */
+@NameBinding
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ ElementType.TYPE, ElementType.METHOD })
+public @interface Cached {
+    // Marker annotation
+}
@@ -0,0 +1,27 @@
+package net.yetamine.lectures.osgi.jaxrs.whiteboard;
+
+import java.util.Objects;
+
+/**
+ * Represents a greeting response.
+ *
+ * @param greeting
+ *            the greeting. It must not be {@code null}.
+ * @param name
+ *            the name of the greeted one. It must not be {@code null}.
+ */
+public record Greeting(String greeting, String name) {
+
+    /**
+     * Creates a new instance.
+     *
+     * @param greeting
+     *            the greeting. It must not be {@code null}.
+     * @param name
+     *            the name of the greeted one. It must not be {@code null}.
+     */
+    public Greeting {
+        Objects.requireNonNull(greeting);
+        Objects.requireNonNull(name);
+    }
+}
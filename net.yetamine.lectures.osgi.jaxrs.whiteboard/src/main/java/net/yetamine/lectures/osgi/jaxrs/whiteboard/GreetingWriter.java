@@ -0,0 +1,184 @@
+package net.yetamine.lectures.osgi.jaxrs.whiteboard;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import org.osgi.service.component.annotations.Component;
+
+/**
+ * Writes {@link Greeting} as JSON directly to the output stream.
+ *
+ * <p>
+ * The shape of the output is fixed, hence no generic JSON provider is needed.
+ * The output is encoded to UTF-8 with the necessary escaping in a buffer that
+ * is reused by the thread, so that writing a greeting allocates nothing but
+ * for unusually long names. Virtual threads, which usually serve a single
+ * request each, get a buffer of the exact size instead, because a buffer kept
+ * for them would never be reused.
+ */
+@Produces(MediaType.APPLICATION_JSON)
+@Component(
+    service = MessageBodyWriter.class,
+    property = {
+        "osgi.jaxrs.extension=true",
+        "osgi.jaxrs.name=" + GreetingWriter.NAME,
+        "osgi.jaxrs.media.type=" + MediaType.APPLICATION_JSON
+    })
+public final class GreetingWriter implements MessageBodyWriter<Greeting> {
+
+    /**
+     * Name of the extension for selecting it.
+     */
+    static final String NAME = "net.yetamine.lectures.osgi.jaxrs.whiteboard.greeting";
+
+    private static final int BUFFER_SIZE = 512;
+    private static final int BUFFER_LIMIT = 8192;
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    private static final byte[] GREETING = ascii("{\"greeting\":\"");
+    private static final byte[] NAME_FIELD = ascii("\",\"name\":\"");
+    private static final byte[] END = ascii("\"}");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    /**
+     * Creates a new instance.
+     */
+    public GreetingWriter() {
+        // Default constructor
+    }
+
+    /**
+     * @see javax.ws.rs.ext.MessageBodyWriter#isWriteable(java.lang.Class,
+     *      java.lang.reflect.Type, java.lang.annotation.Annotation[],
+     *      javax.ws.rs.core.MediaType)
+     */
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return Greeting.class.isAssignableFrom(type) && MediaType.APPLICATION_JSON_TYPE.isCompatible(mediaType);
+    }
+
+    /**
+     * @see javax.ws.rs.ext.MessageBodyWriter#writeTo(java.lang.Object,
+     *      java.lang.Class, java.lang.reflect.Type,
+     *      java.lang.annotation.Annotation[], javax.ws.rs.core.MediaType,
+     *      javax.ws.rs.core.MultivaluedMap, java.io.OutputStream)
+     */
+    @Override
+    public void writeTo(
+            Greeting t,
+            Class<?> type,
+            Type genericType,
+            Annotation[] annotations,
+            MediaType mediaType,
+            MultivaluedMap<String, Object> httpHeaders,
+            OutputStream entityStream)
+            throws IOException {
+
+        final String greeting = t.greeting();
+        final String name = t.name();
+
+        // Any char needs at most 6 bytes when escaped as \\uXXXX, which covers UTF-8 too
+        final int capacity = GREETING.length + NAME_FIELD.length + END.length + 6 * (greeting.length() + name.length());
+        final boolean reusable = !Thread.currentThread().isVirtual();
+        byte[] buffer = reusable ? BUFFER.get() : null;
+        if ((buffer == null) || (buffer.length < capacity)) {
+            buffer = new byte[capacity];
+            if (reusable && (capacity <= BUFFER_LIMIT)) {
+                BUFFER.set(buffer);
+            }
+        }
+
+        int position = put(buffer, 0, GREETING);
+        position = escape(buffer, position, greeting);
+        position = put(buffer, position, NAME_FIELD);
+        position = escape(buffer, position, name);
+        position = put(buffer, position, END);
+        entityStream.write(buffer, 0, position);
+    }
+
+    private static int put(byte[] buffer, int position, byte[] bytes) {
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        return position + bytes.length;
+    }
+
+    private static int escape(byte[] buffer, int position, String value) {
+        int result = position;
+
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+
+            if (c >= 0x80) {
+                final int codePoint;
+                if (Character.isHighSurrogate(c) && (i + 1 < length) && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    codePoint = Character.toCodePoint(c, value.charAt(++i));
+                } else if (Character.isSurrogate(c)) {
+                    codePoint = 0xFFFD; // Unpaired surrogate can't be encoded
+                } else {
+                    codePoint = c;
+                }
+
+                if (codePoint < 0x800) {
+                    buffer[result++] = (byte) (0xC0 | (codePoint >> 6));
+                } else if (codePoint < 0x10000) {
+                    buffer[result++] = (byte) (0xE0 | (codePoint >> 12));
+                    buffer[result++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                } else {
+                    buffer[result++] = (byte) (0xF0 | (codePoint >> 18));
+                    buffer[result++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    buffer[result++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                }
+
+                buffer[result++] = (byte) (0x80 | (codePoint & 0x3F));
+                continue;
+            }
+
+            switch (c) {
+                case '"', '\\' -> {
+                    buffer[result++] = '\\';
+                    buffer[result++] = (byte) c;
+                }
+
+                case '\n' -> {
+                    buffer[result++] = '\\';
+                    buffer[result++] = 'n';
+                }
+
+                case '\r' -> {
+                    buffer[result++] = '\\';
+                    buffer[result++] = 'r';
+                }
+
+                case '\t' -> {
+                    buffer[result++] = '\\';
+                    buffer[result++] = 't';
+                }
+
+                default -> {
+                    if (c < 0x20) {
+                        buffer[result++] = '\\';
+                        buffer[result++] = 'u';
+                        buffer[result++] = '0';
+                        buffer[result++] = '0';
+                        buffer[result++] = HEX[c >> 4];
+                        buffer[result++] = HEX[c & 0xF];
+                    } else {
+                        buffer[result++] = (byte) c;
+                    }
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,87 @@
+package net.yetamine.lectures.osgi.jaxrs.whiteboard;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+
+/**
+ * Provides an executor for asynchronous resource methods, so that the slow
+ * work does not occupy the request threads of the container.
+ *
+ * <p>
+ * The executor uses a virtual thread per task by default, hence the number of
+ * requests in progress is not bounded by the number of platform threads. The
+ * {@code threads} property in the optional configuration switches to a pool of
+ * the given number of platform threads instead, which may be better for CPU
+ * bound work.
+ */
+@Component(
+    service = ResourceExecutor.class,
+    configurationPid = "net.yetamine.lectures.osgi.jaxrs.whiteboard.executor",
+    configurationPolicy = ConfigurationPolicy.OPTIONAL)
+public final class ResourceExecutor implements Executor {
+
+    private final ExecutorService executor;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param configuration
+     *            the configuration. It must not be {@code null}.
+     */
+    @Activate
+    public ResourceExecutor(Map<String, ?> configuration) {
+        final Object threads = configuration.get("threads");
+        final int count = (threads != null) ? Integer.parseInt(threads.toString().trim()) : 0;
+
+        if (count > 0) {
+            executor = Executors.newFixedThreadPool(count, Thread.ofPlatform().name("ResourceExecutor-", 0).factory());
+        } else {
+            executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("ResourceExecutor-", 0).factory());
+        }
+    }
+
+    @Deactivate
+    void deactivate() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS); // Let the pending responses finish
+    }
+
+    /**
+     * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+     */
+    @Override
+    public void execute(Runnable command) {
+        executor.execute(command);
+    }
+
+    /**
+     * Computes a result asynchronously.
+     *
+     * @param <T>
+     *            the type of the result
+     * @param computation
+     *            the computation to run. It must not be {@code null}.
+     *
+     * @return the stage providing the result
+     */
+    public <T> CompletionStage<T> supply(Callable<? extends T> computation) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return computation.call();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+}
@@ -0,0 +1,341 @@
+package net.yetamine.lectures.osgi.jaxrs.whiteboard;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+
+/**
+ * Caches serialized responses of {@link Cached} resource methods and supports
+ * conditional requests for them.
+ *
+ * <p>
+ * The cache is keyed by the request path and the requested media type, i.e.,
+ * the {@code Accept} header, therefore the responses carry
+ * {@code Vary: Accept}. Cached responses carry a strong {@code ETag} derived
+ * from the content, and a request with a matching {@code If-None-Match} header
+ * gets {@code 304 Not Modified}. This works even when the entry is gone, e.g.,
+ * expired: the response is serialized at once to compute the tag, provided
+ * that its media type is known already. The optional configuration may
+ * specify the maximal number of entries by {@code maxEntries} and their time
+ * to live in milliseconds by {@code ttl}.
+ *
+ * <p>
+ * When the cache is full, the oldest entries are evicted first. The entries
+ * reside in a concurrent map, so that the lookups take no lock. Storing an
+ * entry appends it to a queue keeping the insertion order under a lock, and
+ * the eviction removes an entry from the map only if the map still has the
+ * same entry, so that the replaced and expired entries in the queue are just
+ * skipped.
+ */
+@Cached
+@Component(
+    service = { ResponseCache.class, ContainerRequestFilter.class, ContainerResponseFilter.class, WriterInterceptor.class },
+    configurationPid = "net.yetamine.lectures.osgi.jaxrs.whiteboard.cache",
+    configurationPolicy = ConfigurationPolicy.OPTIONAL,
+    property = {
+        "osgi.jaxrs.extension=true",
+        "osgi.jaxrs.name=" + ResponseCache.NAME
+    })
+public final class ResponseCache implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor {
+
+    /**
+     * Name of the extension for selecting it.
+     */
+    static final String NAME = "net.yetamine.lectures.osgi.jaxrs.whiteboard.cache";
+
+    private static final String KEY_PROPERTY = ResponseCache.class.getName() + ".key";
+    private static final String STORE_PROPERTY = ResponseCache.class.getName() + ".store";
+
+    private final int maxEntries;
+    private final long ttl;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final Queue<Entry> order = new ArrayDeque<>(); // Guarded by itself
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder notModified = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @Context
+    private Providers providers;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param configuration
+     *            the configuration. It must not be {@code null}.
+     */
+    @Activate
+    public ResponseCache(Map<String, ?> configuration) {
+        maxEntries = Integer.parseInt(Objects.toString(configuration.get("maxEntries"), "1000").trim());
+        ttl = TimeUnit.MILLISECONDS.toNanos(Long.parseLong(Objects.toString(configuration.get("ttl"), "60000").trim()));
+
+        if ((maxEntries < 1) || (ttl < 1)) {
+            throw new IllegalArgumentException("Invalid cache size or time to live.");
+        }
+    }
+
+    /**
+     * @see javax.ws.rs.container.ContainerRequestFilter#filter(javax.ws.rs.container.ContainerRequestContext)
+     */
+    @Override
+    public void filter(ContainerRequestContext requestContext) {
+        if (!HttpMethod.GET.equals(requestContext.getMethod())) {
+            return;
+        }
+
+        final var uri = requestContext.getUriInfo().getRequestUri();
+        final var query = uri.getRawQuery();
+        final var accept = Objects.toString(requestContext.getHeaderString(HttpHeaders.ACCEPT), "");
+        final var key = uri.getRawPath() + ((query != null) ? '?' + query : "") + ' ' + accept;
+
+        final Entry entry = lookup(key);
+        if (entry == null) {
+            misses.increment();
+            requestContext.setProperty(KEY_PROPERTY, key);
+            return;
+        }
+
+        hits.increment();
+
+        if (entry.matches(requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH))) {
+            notModified.increment();
+            requestContext.abortWith(Response.notModified(entry.tag).build());
+            return;
+        }
+
+        requestContext.abortWith(Response.ok(entry.content, entry.mediaType).tag(entry.tag).build());
+    }
+
+    /**
+     * @see javax.ws.rs.container.ContainerResponseFilter#filter(javax.ws.rs.container.ContainerRequestContext,
+     *      javax.ws.rs.container.ContainerResponseContext)
+     */
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        if (!HttpMethod.GET.equals(requestContext.getMethod())) {
+            return;
+        }
+
+        responseContext.getHeaders().add(HttpHeaders.VARY, HttpHeaders.ACCEPT); // Part of the key
+
+        final Object key = requestContext.getProperty(KEY_PROPERTY);
+        if ((key == null) || (responseContext.getStatus() != Response.Status.OK.getStatusCode()) || !responseContext.hasEntity()) {
+            return;
+        }
+
+        final String ifNoneMatch = requestContext.getHeaderString(HttpHeaders.IF_NONE_MATCH);
+        final MediaType mediaType = responseContext.getMediaType();
+        final byte[] content = ((ifNoneMatch != null) && (mediaType != null))
+            ? serialize(responseContext.getEntityClass(), responseContext)
+            : null;
+
+        if (content == null) {
+            requestContext.setProperty(STORE_PROPERTY, key); // Let the interceptor store the serialized form
+            return;
+        }
+
+        // The client has a tag, but no entry, hence compare with the tag now
+        final Entry entry = store(key.toString(), content, mediaType);
+        if (entry.matches(ifNoneMatch)) {
+            notModified.increment();
+            responseContext.setStatus(Response.Status.NOT_MODIFIED.getStatusCode());
+            responseContext.setEntity(null);
+        } else {
+            responseContext.setEntity(content, responseContext.getEntityAnnotations(), mediaType);
+        }
+
+        responseContext.getHeaders().putSingle(HttpHeaders.ETAG, entry.tag);
+    }
+
+    /**
+     * @see javax.ws.rs.ext.WriterInterceptor#aroundWriteTo(javax.ws.rs.ext.WriterInterceptorContext)
+     */
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        final Object key = context.getProperty(STORE_PROPERTY);
+        if (key == null) {
+            context.proceed();
+            return;
+        }
+
+        final OutputStream output = context.getOutputStream();
+        final var buffer = new ByteArrayOutputStream();
+        context.setOutputStream(buffer);
+        try {
+            context.proceed();
+        } finally {
+            context.setOutputStream(output);
+        }
+
+        final byte[] content = buffer.toByteArray();
+        final Entry entry = store(key.toString(), content, context.getMediaType());
+        context.getHeaders().putSingle(HttpHeaders.ETAG, entry.tag);
+        output.write(content);
+    }
+
+    /**
+     * @return the number of requests served from the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of requests not found in the cache
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of requests answered with {@code 304 Not Modified}
+     */
+    public long notModified() {
+        return notModified.sum();
+    }
+
+    /**
+     * @return the number of entries removed because of the size or time
+     *         limits
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return String.format("ResponseCache[size=%d, hits=%d, misses=%d, notModified=%d, evictions=%d]",
+            size(), hits(), misses(), notModified(), evictions());
+    }
+
+    private Entry lookup(String key) {
+        final Entry result = entries.get(key);
+        if ((result == null) || !result.isExpired(System.nanoTime())) {
+            return result;
+        }
+
+        if (entries.remove(key, result)) {
+            evictions.increment();
+        }
+
+        return null;
+    }
+
+    private Entry store(String key, byte[] content, MediaType mediaType) {
+        final var result = new Entry(key, content, mediaType, new EntityTag(digest(content)), System.nanoTime() + ttl);
+
+        synchronized (order) {
+            entries.put(key, result);
+            order.add(result);
+
+            // Evict the oldest entries, the replaced and expired ones in the queue
+            // just go away, but do not let them accumulate either
+            while ((entries.size() > maxEntries) || (order.size() > 2 * maxEntries)) {
+                final Entry eldest = order.remove();
+                if (entries.remove(eldest.key, eldest)) {
+                    evictions.increment();
+                }
+            }
+        }
+
+        return result;
+    }
+
+    private <T> byte[] serialize(Class<T> type, ContainerResponseContext response) throws IOException {
+        final var annotations = response.getEntityAnnotations();
+        final MessageBodyWriter<T> writer = providers.getMessageBodyWriter(type, response.getEntityType(), annotations, response.getMediaType());
+        if (writer == null) {
+            return null;
+        }
+
+        final var buffer = new ByteArrayOutputStream();
+        writer.writeTo(type.cast(response.getEntity()), type, response.getEntityType(), annotations, response.getMediaType(), response.getHeaders(), buffer);
+        return buffer.toByteArray();
+    }
+
+    private static String digest(byte[] content) {
+        try {
+            final byte[] hash = MessageDigest.getInstance("SHA-256").digest(content);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Mandatory algorithm
+        }
+    }
+
+    /**
+     * Represents a cached response.
+     */
+    private static final class Entry {
+
+        final String key;
+        final byte[] content;
+        final MediaType mediaType;
+        final EntityTag tag;
+        final long expiration;
+
+        Entry(String givenKey, byte[] givenContent, MediaType givenMediaType, EntityTag givenTag, long givenExpiration) {
+            key = givenKey;
+            content = givenContent;
+            mediaType = givenMediaType;
+            tag = givenTag;
+            expiration = givenExpiration;
+        }
+
+        boolean isExpired(long now) {
+            return (now - expiration >= 0);
+        }
+
+        boolean matches(String ifNoneMatch) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+
+            final String quoted = '"' + tag.getValue() + '"';
+            for (String candidate : ifNoneMatch.split(",")) {
+                final String value = candidate.trim();
+                if ("*".equals(value) || quoted.equals(value) || ("W/" + quoted).equals(value)) {
+                    return true; // Weak comparison is fine for GET
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package net.yetamine.lectures.osgi.jaxrs.whiteboard;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+
+/**
+ * Exposes the statistics of {@link ResponseCache}.
+ */
+@Path("/rest/cache")
+@Component(service = ResponseCacheStatistics.class, property = { "osgi.jaxrs.resource=true" })
+public final class ResponseCacheStatistics {
+
+    @Reference
+    private ResponseCache cache;
+
+    @Path("/")
+    @GET
+    @Produces("text/plain")
+    public String statistics() {
+        return String.format("size=%d%nhits=%d%nmisses=%d%nnotModified=%d%nevictions=%d%n",
+            cache.size(), cache.hits(), cache.misses(), cache.notModified(), cache.evictions());
+    }
+}
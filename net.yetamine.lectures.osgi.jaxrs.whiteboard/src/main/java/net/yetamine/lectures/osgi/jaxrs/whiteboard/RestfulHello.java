@@ -1,17 +1,30 @@
 package net.yetamine.lectures.osgi.jaxrs.whiteboard;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
 
 @Path("/rest/hello")
-@Component(service = RestfulHello.class, property = { "osgi.jaxrs.resource=true" })
+@Component(
+    service = RestfulHello.class,
+    property = {
+        "osgi.jaxrs.resource=true",
+        "osgi.jaxrs.extension.select=(osgi.jaxrs.name=" + GreetingWriter.NAME + ")",
+        "osgi.jaxrs.extension.select=(osgi.jaxrs.name=" + ResponseCache.NAME + ")",
+        "osgi.jaxrs.extension.select=(osgi.jaxrs.name=" + AdmissionControl.NAME + ")"
+    })
 public final class RestfulHello {
 
+    @Reference
+    private ResourceExecutor executor;
+
     @Path("/")
     @GET
     @Produces("text/plain")
@@ -19,20 +32,39 @@ public final class RestfulHello {
         return "Append your name as the next path component.";
     }
 
+    @Cached
     @Path("/{id}")
     @GET
     @Produces("application/json")
-    public Map<String, ?> jsonGreeting(@PathParam("id") String id) {
-        final Map<String, String> result = new HashMap<>();
-        result.put("greeting", "hello");
-        result.put("name", id);
-        return result;
+    public Greeting jsonGreeting(@PathParam("id") String id) {
+        return new Greeting("hello", id); // Written by GreetingWriter
     }
 
+    @Cached
     @Path("/{id}")
     @GET
     @Produces("text/plain")
     public String textGreeting(@PathParam("id") String id) {
         return "Hello " + id;
     }
+
+    // Asynchronous variants, which release the request thread while working
+
+    @Path("/async/{id}")
+    @GET
+    @Produces("text/plain")
+    public CompletionStage<String> asyncGreeting(@PathParam("id") String id) {
+        return executor.supply(() -> textGreeting(id));
+    }
+
+    @Path("/suspended/{id}")
+    @GET
+    @Produces("application/json")
+    public void suspendedGreeting(@PathParam("id") String id, @Suspended AsyncResponse response) {
+        try {
+            executor.execute(() -> response.resume(jsonGreeting(id)));
+        } catch (RejectedExecutionException e) {
+            response.resume(e); // Shutting down
+        }
+    }
 }
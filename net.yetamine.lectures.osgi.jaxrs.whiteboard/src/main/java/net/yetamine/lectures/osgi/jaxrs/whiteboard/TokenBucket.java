@@ -0,0 +1,83 @@
+package net.yetamine.lectures.osgi.jaxrs.whiteboard;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of events like a token bucket without any lock.
+ *
+ * <p>
+ * Instead of counting the tokens and refilling them periodically, the bucket
+ * keeps just the time when it would get full again, which is the generic cell
+ * rate algorithm. An event takes a token by moving the time by the interval of
+ * a single token, and it is allowed as long as the time does not get too far
+ * ahead of the current time, i.e., as long as the bucket is not empty. Hence
+ * a single atomic update is enough for taking a token.
+ */
+final class TokenBucket {
+
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong full;
+
+    /**
+     * Creates a new full instance.
+     *
+     * @param rate
+     *            the number of tokens per second. It must be positive.
+     * @param burst
+     *            the capacity of the bucket. It must be positive.
+     * @param now
+     *            the current time in nanoseconds
+     */
+    TokenBucket(double rate, int burst, long now) {
+        if ((rate <= 0) || (burst < 1)) {
+            throw new IllegalArgumentException("Rate and burst must be positive.");
+        }
+
+        interval = Math.max(1, (long) (1e9 / rate));
+        tolerance = (burst - 1) * interval;
+        full = new AtomicLong(now);
+    }
+
+    /**
+     * Takes a token if available.
+     *
+     * @param now
+     *            the current time in nanoseconds
+     *
+     * @return {@code true} if the token was taken
+     */
+    boolean tryAcquire(long now) {
+        for (;;) {
+            final long current = full.get();
+            final long base = (current - now > 0) ? current : now;
+            if (base - now > tolerance) {
+                return false;
+            }
+
+            if (full.compareAndSet(current, base + interval)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns a token taken by {@link #tryAcquire(long)} when the event did
+     * not happen finally.
+     */
+    void release() {
+        full.addAndGet(-interval);
+    }
+
+    /**
+     * Indicates whether the bucket is full, hence it behaves like a new one.
+     *
+     * @param now
+     *            the current time in nanoseconds
+     *
+     * @return {@code true} if the bucket is full
+     */
+    boolean isFull(long now) {
+        return (full.get() - now <= 0);
+    }
+}
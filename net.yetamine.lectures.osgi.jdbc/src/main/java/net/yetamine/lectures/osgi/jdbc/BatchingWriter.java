@@ -0,0 +1,247 @@
+package net.yetamine.lectures.osgi.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import net.yetamine.lectures.osgi.jdbc.api.BatchWriter;
+import org.osgi.service.component.annotations.Activate;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.ConfigurationPolicy;
+import org.osgi.service.component.annotations.Deactivate;
+import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+
+/**
+ * This component registers {@link BatchWriter} that writes to a
+ * {@link DataSource}.
+ *
+ * <p>
+ * The writes are queued and a single thread takes them from the queue and
+ * executes them in batches, each within a single transaction. A batch is
+ * executed when it reaches {@code batchSize} writes, or when its first write
+ * waits for {@code maxDelay} milliseconds. Consecutive writes with the same SQL
+ * statement share a {@link PreparedStatement} batch. When the queue, bounded by
+ * {@code queueCapacity}, is full, writers wait up to {@code offerTimeout}
+ * milliseconds before their writes get rejected. On deactivation, the queued
+ * writes get {@code closeTimeout} milliseconds to finish; then the flusher is
+ * interrupted and the writes still queued get rejected, so that a stuck
+ * database cannot block the deactivation.
+ *
+ * <p>
+ * The component binds to any {@link DataSource} by default, the desired one
+ * should be specified by a suitable filter for the {@code dataSource} reference
+ * (i.e., adjust {@code dataSource.target} property), e.g., using the database
+ * name attached by {@link Database}.
+ */
+@Component(
+    service = BatchWriter.class,
+    configurationPid = "net.yetamine.lectures.osgi.jdbc.writer",
+    configurationPolicy = ConfigurationPolicy.REQUIRE)
+public final class BatchingWriter implements BatchWriter {
+
+    private final DataSource dataSource;
+    private final BlockingQueue<Write> queue;
+    private final int batchSize;
+    private final long maxDelay;
+    private final long offerTimeout;
+    private final long closeTimeout;
+    private final Thread flusher;
+    private volatile boolean closed;
+    private volatile boolean aborted;
+
+    @Activate
+    public BatchingWriter(
+            @Reference(name = "dataSource",
+                cardinality = ReferenceCardinality.MANDATORY,
+                policy = ReferencePolicy.STATIC,
+                policyOption = ReferencePolicyOption.GREEDY) DataSource givenDataSource,
+            Map<String, ?> configuration) {
+
+        dataSource = Objects.requireNonNull(givenDataSource);
+        batchSize = intValue(configuration, "batchSize", 100);
+        maxDelay = TimeUnit.MILLISECONDS.toNanos(intValue(configuration, "maxDelay", 10));
+        offerTimeout = intValue(configuration, "offerTimeout", 1000);
+        closeTimeout = intValue(configuration, "closeTimeout", 5000);
+        queue = new ArrayBlockingQueue<>(intValue(configuration, "queueCapacity", 10_000));
+
+        if ((batchSize < 1) || (maxDelay < 0) || (offerTimeout < 0) || (closeTimeout < 1)) {
+            throw new IllegalArgumentException("Invalid batch size, delay or timeout.");
+        }
+
+        flusher = Thread.ofPlatform().name("BatchingWriter-flusher").daemon().start(this::run);
+    }
+
+    @Deactivate
+    void deactivate() throws InterruptedException {
+        closed = true;
+        flusher.join(closeTimeout); // Let the pending writes finish, but not forever
+        if (flusher.isAlive()) {
+            aborted = true; // The driver might swallow the interruption
+            flusher.interrupt();
+            rejectQueued();
+        }
+    }
+
+    /**
+     * @see net.yetamine.lectures.osgi.jdbc.api.BatchWriter#write(java.lang.String,
+     *      java.lang.Object[])
+     */
+    @Override
+    public CompletionStage<Integer> write(String sql, Object... parameters) {
+        final var write = new Write(Objects.requireNonNull(sql), parameters.clone());
+
+        if (closed) {
+            return CompletableFuture.failedStage(new RejectedExecutionException("Writer closed."));
+        }
+
+        try {
+            if (!queue.offer(write, offerTimeout, TimeUnit.MILLISECONDS)) {
+                return CompletableFuture.failedStage(new RejectedExecutionException("Write queue full."));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CompletableFuture.failedStage(e);
+        }
+
+        // The flusher might have finished meanwhile, then nobody would complete the write
+        if (closed && queue.remove(write)) {
+            write.result.completeExceptionally(new RejectedExecutionException("Writer closed."));
+        }
+
+        return write.result;
+    }
+
+    private void run() {
+        final List<Write> batch = new ArrayList<>(batchSize);
+
+        try {
+            while (!aborted && (!closed || !queue.isEmpty())) {
+                final Write first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue; // Check if closed
+                }
+
+                batch.add(first);
+                final long deadline = System.nanoTime() + maxDelay;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+
+                    final long remaining = deadline - System.nanoTime();
+                    final Write next;
+                    if ((remaining <= 0) || ((next = queue.poll(remaining, TimeUnit.NANOSECONDS)) == null)) {
+                        break;
+                    }
+
+                    batch.add(next);
+                }
+
+                flush(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            closed = true;
+            batch.forEach(write -> write.result.completeExceptionally(e));
+        }
+
+        rejectQueued();
+    }
+
+    private void rejectQueued() {
+        for (Write write; (write = queue.poll()) != null;) {
+            write.result.completeExceptionally(new RejectedExecutionException("Writer closed."));
+        }
+    }
+
+    private void flush(List<Write> batch) {
+        final int[] counts = new int[batch.size()];
+        Arrays.fill(counts, Statement.SUCCESS_NO_INFO); // In case the driver reports less
+
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+
+            try {
+                int start = 0;
+                while (start < batch.size()) {
+                    final String sql = batch.get(start).sql;
+                    int end = start;
+                    try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                        do {
+                            final Object[] parameters = batch.get(end).parameters;
+                            for (int i = 0; i < parameters.length; i++) {
+                                statement.setObject(i + 1, parameters[i]);
+                            }
+
+                            statement.addBatch();
+                        } while ((++end < batch.size()) && sql.equals(batch.get(end).sql));
+
+                        final int[] results = statement.executeBatch();
+                        System.arraycopy(results, 0, counts, start, Math.min(results.length, end - start));
+                    }
+
+                    start = end;
+                }
+
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                try {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                } catch (SQLException suppressed) {
+                    e.addSuppressed(suppressed); // Do not mask the original failure
+                }
+
+                throw e;
+            }
+
+            try {
+                connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                // Committed already, so the writes succeeded anyway
+            }
+        } catch (SQLException | RuntimeException e) {
+            batch.forEach(write -> write.result.completeExceptionally(e));
+            return;
+        }
+
+        for (int i = 0; i < counts.length; i++) {
+            batch.get(i).result.complete(counts[i]);
+        }
+    }
+
+    private static int intValue(Map<String, ?> properties, String name, int defaultValue) {
+        final Object value = properties.get(name);
+        return (value != null) ? Integer.parseInt(value.toString().trim()) : defaultValue;
+    }
+
+    /**
+     * Represents a queued write.
+     */
+    private static final class Write {
+
+        final String sql;
+        final Object[] parameters;
+        final CompletableFuture<Integer> result = new CompletableFuture<>();
+
+        Write(String givenSql, Object[] givenParameters) {
+            sql = givenSql;
+            parameters = givenParameters;
+        }
+    }
+}
@@ -0,0 +1,803 @@
+package net.yetamine.lectures.osgi.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+import net.yetamine.lectures.osgi.jdbc.api.StatementCacheStatistics;
+import org.osgi.service.jdbc.DataSourceFactory;
+
+/**
+ * Implements a simple pool of physical connections provided by a
+ * {@link DataSource}.
+ *
+ * <p>
+ * The pool keeps idle connections in a LIFO deque, so that the most recently
+ * used connections are reused first and the least recently used ones become
+ * candidates for the eviction. The number of connections handed out is bounded
+ * by a semaphore, which is the only point where borrowers might wait. Because
+ * a connection returns to the deque before its permit is released, the number
+ * of physical connections never exceeds the maximal pool size. An idle
+ * connection that has not been used for a while is validated before handing it
+ * out, and a broken one is replaced with a new one.
+ *
+ * <p>
+ * The pool uses the standard property names defined by
+ * {@link DataSourceFactory}, i.e., {@code initialPoolSize},
+ * {@code minPoolSize}, {@code maxPoolSize} and {@code maxIdleTime} (in
+ * seconds). When {@code maxStatements} is positive, each pooled connection
+ * caches up to that number of prepared statements, see {@link StatementCache},
+ * and {@link #unwrap(Class)} provides {@link StatementCacheStatistics}.
+ *
+ * <p>
+ * A borrowed connection hands out guarded statements, result sets and
+ * metadata, which return the borrowed connection instead of the physical one
+ * and which stop working when the borrowed connection is closed. Closing the
+ * borrowed connection closes the statements and result sets left open, and
+ * the connection returns to the pool with the initial auto-commit, read-only,
+ * transaction isolation, catalog, schema and holdability settings. The
+ * borrowed connection and the guarded objects do not unwrap to the physical
+ * ones, which would outlive the borrowing.
+ *
+ * <p>
+ * A connection requested with explicit credentials is not pooled, it comes
+ * directly from the source and it is closed directly as well.
+ */
+final class ConnectionPool implements ManagedDataSource {
+
+    /**
+     * Default value for {@code maxPoolSize}.
+     */
+    static final int DEFAULT_MAX_POOL_SIZE = 8;
+
+    private static final long VALIDATION_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final int VALIDATION_TIMEOUT = 1; // In seconds as isValid wants
+
+    private final DataSource source;
+    private final int minPoolSize;
+    private final long maxIdleTime;
+    private final Semaphore permits;
+    private final AtomicInteger size = new AtomicInteger();
+    private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<>();
+    private final ScheduledExecutorService evictor;
+    private final StatementCache.Statistics statementCacheStatistics;
+    private volatile int loginTimeout;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new instance and fills it with the initial connections.
+     *
+     * @param givenSource
+     *            the source of the physical connections. It must not be
+     *            {@code null}.
+     * @param initialPoolSize
+     *            the number of connections to open at once
+     * @param givenMinPoolSize
+     *            the number of connections that the eviction keeps
+     * @param maxPoolSize
+     *            the maximal number of connections. It must be positive.
+     * @param givenMaxIdleTime
+     *            the time in seconds after which an idle connection may be
+     *            closed, zero disables the eviction
+     * @param maxStatements
+     *            the maximal number of statements to cache for a connection,
+     *            zero disables the statement caching
+     *
+     * @throws SQLException
+     *             if the initial connections could not be opened
+     */
+    ConnectionPool(DataSource givenSource, int initialPoolSize, int givenMinPoolSize, int maxPoolSize, long givenMaxIdleTime, int maxStatements)
+            throws SQLException {
+
+        if ((maxPoolSize < 1) || (givenMinPoolSize < 0) || (givenMinPoolSize > maxPoolSize) || (givenMaxIdleTime < 0)) {
+            throw new IllegalArgumentException("Invalid pool size or idle time.");
+        }
+
+        if (maxStatements < 0) {
+            throw new IllegalArgumentException("Invalid statement cache size.");
+        }
+
+        source = Objects.requireNonNull(givenSource);
+        minPoolSize = givenMinPoolSize;
+        maxIdleTime = TimeUnit.SECONDS.toNanos(givenMaxIdleTime);
+        permits = new Semaphore(maxPoolSize);
+        statementCacheStatistics = new StatementCache.Statistics(maxStatements);
+
+        try { // Pre-warm the pool, so that the first requests do not pay for opening the connections
+            final int prewarm = Math.min(Math.max(initialPoolSize, minPoolSize), maxPoolSize);
+            for (int i = 0; i < prewarm; i++) {
+                idle.offerFirst(open());
+            }
+        } catch (SQLException e) {
+            idle.forEach(PooledConnection::discard);
+            throw e;
+        }
+
+        if (maxIdleTime > 0) {
+            evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+                final var thread = new Thread(r, "ConnectionPool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+            final long period = Math.max(TimeUnit.NANOSECONDS.toMillis(maxIdleTime) / 2, 1);
+            evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+        } else {
+            evictor = null;
+        }
+    }
+
+    /**
+     * Creates a new instance using the pool properties.
+     *
+     * @param source
+     *            the source of the physical connections. It must not be
+     *            {@code null}.
+     * @param properties
+     *            the pool properties. It must not be {@code null}.
+     *
+     * @return the new instance
+     *
+     * @throws SQLException
+     *             if the initial connections could not be opened
+     */
+    static ConnectionPool create(DataSource source, Map<String, ?> properties) throws SQLException {
+        final int maxPoolSize = intValue(properties, DataSourceFactory.JDBC_MAX_POOL_SIZE, DEFAULT_MAX_POOL_SIZE);
+        final int minPoolSize = intValue(properties, DataSourceFactory.JDBC_MIN_POOL_SIZE, 0);
+        final int initialPoolSize = intValue(properties, DataSourceFactory.JDBC_INITIAL_POOL_SIZE, minPoolSize);
+        final int maxIdleTime = intValue(properties, DataSourceFactory.JDBC_MAX_IDLE_TIME, 0);
+        final int maxStatements = intValue(properties, DataSourceFactory.JDBC_MAX_STATEMENTS, 0);
+        return new ConnectionPool(source, initialPoolSize, minPoolSize, maxPoolSize, maxIdleTime, maxStatements);
+    }
+
+    /**
+     * Tests if the given property is a pool property, which should not be
+     * passed to the driver.
+     *
+     * @param name
+     *            the name of the property. It must not be {@code null}.
+     *
+     * @return {@code true} if the property belongs to the pool
+     */
+    static boolean isPoolProperty(String name) {
+        return switch (name) {
+            case DataSourceFactory.JDBC_INITIAL_POOL_SIZE,
+                 DataSourceFactory.JDBC_MIN_POOL_SIZE,
+                 DataSourceFactory.JDBC_MAX_POOL_SIZE,
+                 DataSourceFactory.JDBC_MAX_IDLE_TIME,
+                 DataSourceFactory.JDBC_MAX_STATEMENTS -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * Closes all idle connections and prevents borrowing more connections.
+     * Connections that are borrowed get closed when returned.
+     *
+     * @see net.yetamine.lectures.osgi.jdbc.ManagedDataSource#close()
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        if (evictor != null) {
+            evictor.shutdownNow();
+        }
+
+        for (PooledConnection connection; (connection = idle.pollFirst()) != null;) {
+            connection.discard();
+        }
+    }
+
+    /**
+     * @see javax.sql.DataSource#getConnection()
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool closed.");
+        }
+
+        acquire();
+        return borrow();
+    }
+
+    /**
+     * Borrows a connection unless the pool stays exhausted for the given time,
+     * regardless of the login timeout, so that the caller can tell a busy pool
+     * from a failing database.
+     *
+     * @param timeout
+     *            the maximal time to wait for a free connection in
+     *            nanoseconds, zero or less for not waiting at all
+     *
+     * @return the connection, or {@code null} if no connection became free in
+     *         time
+     *
+     * @throws SQLException
+     *             if the pool is closed or a new connection could not be opened
+     */
+    Connection poll(long timeout) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool closed.");
+        }
+
+        try {
+            if (!permits.tryAcquire(timeout, TimeUnit.NANOSECONDS)) {
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection.", e);
+        }
+
+        return borrow();
+    }
+
+    /**
+     * @see javax.sql.DataSource#getConnection(java.lang.String,
+     *      java.lang.String)
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool closed.");
+        }
+
+        return source.getConnection(username, password); // Pooled connections use the configured credentials only
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#getLogWriter()
+     */
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return source.getLogWriter();
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#setLogWriter(java.io.PrintWriter)
+     */
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        source.setLogWriter(out);
+    }
+
+    /**
+     * Sets the maximal time in seconds to wait for a free connection, zero
+     * means waiting indefinitely.
+     *
+     * @see javax.sql.CommonDataSource#setLoginTimeout(int)
+     */
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        loginTimeout = seconds;
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#getLoginTimeout()
+     */
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return loginTimeout;
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#getParentLogger()
+     */
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return source.getParentLogger();
+    }
+
+    /**
+     * @see java.sql.Wrapper#unwrap(java.lang.Class)
+     */
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+
+        if (iface.isInstance(statementCacheStatistics)) {
+            return iface.cast(statementCacheStatistics);
+        }
+
+        return source.unwrap(iface);
+    }
+
+    /**
+     * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
+     */
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || iface.isInstance(statementCacheStatistics) || source.isWrapperFor(iface);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return String.format("ConnectionPool[size=%d, idle=%d]", size.get(), idle.size());
+    }
+
+    private void acquire() throws SQLException {
+        final int timeout = loginTimeout;
+
+        try {
+            if (timeout <= 0) {
+                permits.acquire();
+            } else if (!permits.tryAcquire(timeout, TimeUnit.SECONDS)) {
+                throw new SQLException("No connection available within the timeout.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection.", e);
+        }
+    }
+
+    private Connection borrow() throws SQLException {
+        try { // With a permit acquired already, which must return on a failure
+            for (PooledConnection pooled; (pooled = idle.pollFirst()) != null;) {
+                if (pooled.isValid()) {
+                    return pooled.borrow();
+                }
+
+                pooled.discard(); // Broken meanwhile, e.g., the database closed it
+            }
+
+            return open().borrow();
+        } catch (SQLException | RuntimeException | Error e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnection open() throws SQLException {
+        final Connection physical = source.getConnection();
+        final PooledConnection result;
+        try {
+            result = new PooledConnection(physical);
+        } catch (SQLException | RuntimeException | Error e) {
+            try {
+                physical.close();
+            } catch (SQLException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+
+            throw e;
+        }
+
+        size.incrementAndGet();
+        return result;
+    }
+
+    private void release(PooledConnection connection) {
+        try {
+            if (closed || !connection.reset()) {
+                connection.discard();
+                return;
+            }
+
+            connection.touch();
+            idle.offerFirst(connection); // Make it available before releasing the permit
+            if (closed && idle.remove(connection)) {
+                connection.discard(); // Closed meanwhile, hence nobody would take it
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void evict() {
+        final long now = System.nanoTime();
+        final var iterator = idle.descendingIterator(); // The oldest ones first
+        while (iterator.hasNext() && (size.get() > minPoolSize)) {
+            final PooledConnection connection = iterator.next();
+            if ((now - connection.lastUsed < maxIdleTime) || !idle.removeLastOccurrence(connection)) {
+                continue; // Either still fresh or just borrowed by somebody else
+            }
+
+            connection.discard();
+        }
+    }
+
+    private static int intValue(Map<String, ?> properties, String name, int defaultValue) {
+        final Object value = properties.get(name);
+        return (value != null) ? Integer.parseInt(value.toString().trim()) : defaultValue;
+    }
+
+    /**
+     * Wraps a physical connection and hands out its proxies for borrowers.
+     */
+    private final class PooledConnection {
+
+        final Connection physical;
+        final StatementCache statements;
+        volatile long lastUsed = System.nanoTime();
+
+        // The initial settings to restore for the next borrower
+        private final int isolation;
+        private final String catalog;
+        private final String schema;
+        private final int holdability;
+
+        PooledConnection(Connection givenPhysical) throws SQLException {
+            physical = givenPhysical;
+            statements = (statementCacheStatistics.maxStatements() > 0)
+                ? new StatementCache(statementCacheStatistics)
+                : null;
+
+            isolation = physical.getTransactionIsolation();
+            catalog = physical.getCatalog();
+            schema = schema(physical);
+            holdability = physical.getHoldability();
+        }
+
+        Connection borrow() {
+            return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class },
+                new Handle(this));
+        }
+
+        void touch() {
+            lastUsed = System.nanoTime();
+        }
+
+        boolean isValid() {
+            if (System.nanoTime() - lastUsed < VALIDATION_INTERVAL) {
+                return true; // Used just now, do not pay for a round trip
+            }
+
+            try {
+                return physical.isValid(VALIDATION_TIMEOUT);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        boolean reset() {
+            try {
+                if (physical.isClosed()) {
+                    return false;
+                }
+
+                // Do not let uncommitted work leak to the next borrower
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+
+                if (physical.isReadOnly()) {
+                    physical.setReadOnly(false);
+                }
+
+                if (physical.getTransactionIsolation() != isolation) {
+                    physical.setTransactionIsolation(isolation);
+                }
+
+                if ((catalog != null) && !catalog.equals(physical.getCatalog())) {
+                    physical.setCatalog(catalog);
+                }
+
+                if ((schema != null) && !schema.equals(schema(physical))) {
+                    physical.setSchema(schema);
+                }
+
+                if (physical.getHoldability() != holdability) {
+                    physical.setHoldability(holdability);
+                }
+
+                physical.clearWarnings();
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void discard() {
+            size.decrementAndGet();
+
+            if (statements != null) {
+                statements.close();
+            }
+
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                // Nothing to do, the connection is lost anyway
+            }
+        }
+
+        private static String schema(Connection connection) {
+            try {
+                return connection.getSchema();
+            } catch (SQLException | AbstractMethodError e) {
+                return null; // Not supported by the driver, hence nothing to restore
+            }
+        }
+    }
+
+    /**
+     * Handles the invocations of a borrowed connection.
+     */
+    private final class Handle implements InvocationHandler {
+
+        private final Set<Guard> open = ConcurrentHashMap.newKeySet();
+        private volatile PooledConnection connection;
+
+        Handle(PooledConnection givenConnection) {
+            connection = givenConnection;
+        }
+
+        /**
+         * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+         *      java.lang.reflect.Method, java.lang.Object[])
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    close();
+                    return null;
+
+                case "isClosed":
+                    return (connection(false) == null);
+
+                case "equals":
+                    return (proxy == args[0]);
+
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+
+                case "toString":
+                    return "PooledConnection[" + connection(false) + "]";
+
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+
+                    throw new SQLException("Borrowed connections do not unwrap to " + args[0]);
+
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+
+                case "prepareStatement":
+                    final PooledConnection target = connection(true);
+                    final Object statement = (target.statements != null)
+                        ? target.statements.prepare((Connection) proxy, args, () -> {
+                            return (PreparedStatement) prepare(target.physical, method, args);
+                        })
+                        : prepare(target.physical, method, args);
+
+                    // Closing a cached statement returns it to the cache
+                    return guard(proxy, method.getReturnType(), statement, null, true);
+
+                case "createStatement", "prepareCall":
+                    return guard(proxy, method.getReturnType(), prepare(connection(true).physical, method, args), null, true);
+
+                case "getMetaData":
+                    return guard(proxy, DatabaseMetaData.class, prepare(connection(true).physical, method, args), null, false);
+
+                default:
+                    break;
+            }
+
+            try {
+                return method.invoke(connection(true).physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        Object guard(Object proxy, Class<?> type, Object target, Guard owner, boolean tracked) {
+            final Set<Guard> tracker = tracked ? (((owner != null) && (owner.results != null)) ? owner.results : open) : null;
+            final var guard = new Guard(this, (Connection) proxy, target, owner, tracker);
+            guard.proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, guard);
+            if (tracker != null) {
+                tracker.add(guard);
+            }
+
+            return guard.proxy;
+        }
+
+        boolean isClosed() {
+            return (connection == null);
+        }
+
+        private static Object prepare(Connection target, Method method, Object[] args) throws SQLException {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof SQLException sqlException) {
+                    throw sqlException;
+                }
+
+                if (cause instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+
+                if (cause instanceof Error error) {
+                    throw error;
+                }
+
+                throw new SQLException(cause);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private PooledConnection connection(boolean required) throws SQLException {
+            final PooledConnection result = connection;
+            if (required && (result == null)) {
+                throw new SQLException("Connection closed.");
+            }
+
+            return result;
+        }
+
+        private void close() {
+            final PooledConnection released;
+
+            synchronized (this) {
+                released = connection;
+                connection = null;
+            }
+
+            if (released != null) {
+                // Close what the borrower left open before the next one gets the connection
+                open.forEach(Guard::closeQuietly);
+                release(released);
+            }
+        }
+    }
+
+    /**
+     * Guards a statement, a result set or metadata obtained through a borrowed
+     * connection, so that it neither reveals the physical connection nor works
+     * after the borrowed connection is closed.
+     */
+    private static final class Guard implements InvocationHandler {
+
+        final Handle handle;
+        final Connection connection;
+        final Object target;
+        final Guard owner;
+        final Set<Guard> tracker;
+        final Set<Guard> results;
+        volatile Object proxy;
+        private volatile boolean closed;
+
+        Guard(Handle givenHandle, Connection givenConnection, Object givenTarget, Guard givenOwner, Set<Guard> givenTracker) {
+            handle = givenHandle;
+            connection = givenConnection;
+            target = givenTarget;
+            owner = givenOwner;
+            tracker = givenTracker;
+            // Statements close their results, the results of metadata belong to the connection
+            results = (target instanceof Statement) ? ConcurrentHashMap.newKeySet() : null;
+        }
+
+        /**
+         * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+         *      java.lang.reflect.Method, java.lang.Object[])
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (args == null) {
+                        close();
+                        return null;
+                    }
+
+                    break;
+
+                case "isClosed":
+                    if (args == null) {
+                        return closed || handle.isClosed() || (Boolean) invoke(method, args);
+                    }
+
+                    break;
+
+                case "getConnection":
+                    return connection;
+
+                case "getStatement":
+                    return ((owner != null) && (owner.results != null)) ? owner.proxy : null;
+
+                case "equals":
+                    return (proxy == args[0]);
+
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+
+                case "toString":
+                    return "Guarded[" + target + "]";
+
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+
+                    throw new SQLException("Guarded objects do not unwrap to " + args[0]);
+
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy);
+
+                default:
+                    break;
+            }
+
+            if (closed || handle.isClosed()) {
+                throw new SQLException("Closed already.");
+            }
+
+            final Object result = invoke(method, args);
+            return ((result != null) && (method.getReturnType() == ResultSet.class))
+                ? handle.guard(connection, ResultSet.class, result, this, true)
+                : result;
+        }
+
+        void closeQuietly() {
+            try {
+                close();
+            } catch (SQLException e) {
+                // Nothing to do, the borrower is gone
+            }
+        }
+
+        private void close() throws SQLException {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            if (tracker != null) {
+                tracker.remove(this);
+            }
+
+            if (results != null) {
+                results.forEach(Guard::closeQuietly);
+            }
+
+            if (target instanceof Statement statement) {
+                statement.close();
+            } else if (target instanceof ResultSet resultSet) {
+                resultSet.close();
+            }
+        }
+
+        private Object invoke(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
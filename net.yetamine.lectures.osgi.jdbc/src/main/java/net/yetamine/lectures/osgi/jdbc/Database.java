@@ -1,9 +1,13 @@
 package net.yetamine.lectures.osgi.jdbc;
 
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.TreeMap;
 import javax.sql.DataSource;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.ServiceRegistration;
@@ -29,6 +33,43 @@ import org.osgi.service.jdbc.DataSourceFactory;
  * to bind.
  *
  * <p>
+ * The registered {@link DataSource} is a connection pool. The standard pool
+ * properties defined by {@link DataSourceFactory} are taken from the connection
+ * properties, i.e., {@code connection.initialPoolSize},
+ * {@code connection.minPoolSize}, {@code connection.maxPoolSize} and
+ * {@code connection.maxIdleTime} (in seconds), and they are not passed to the
+ * driver. The pool opens the initial connections on activation. Setting
+ * {@code connection.maxStatements} to a positive number enables caching of
+ * prepared statements for each pooled connection; the statistics of the cache
+ * are available via {@code DataSource.unwrap(StatementCacheStatistics.class)}.
+ *
+ * <p>
+ * The {@code activation} property controls when the pool gets created. The
+ * default {@code eager} mode creates the pool during the activation of this
+ * component, hence a slow database delays the activation and an unavailable
+ * database makes it fail. The {@code lazy} mode registers the data source at
+ * once and creates the pool on its first use, while the {@code background}
+ * mode registers the data source at once as well, but starts creating the
+ * pool in a background thread immediately. In both deferred modes, a failed
+ * attempt is repeated on the next use. The registered service has the
+ * {@code database.ready} property that is {@code false} until the pool is
+ * created, so that the consumers may wait for the ready data source with the
+ * {@code (database.ready=true)} filter. The deactivation interrupts a pending
+ * background creation and does not wait for it longer than a few seconds.
+ *
+ * <p>
+ * The configuration may specify read replicas of the database. The properties
+ * of a replica have the {@code replica.<name>.} prefix and follow the same
+ * rules as the connection properties. When any replica is present, the
+ * registered {@link DataSource} routes read-only connections to the replica
+ * with the lowest latency, while the other connections go to the primary
+ * database given by the connection properties, see {@link RoutingDataSource}.
+ * The routing properties with {@code routing.} prefix, i.e.,
+ * {@code routing.probeInterval}, {@code routing.maxLatency} and
+ * {@code routing.ejectionTime} (all in milliseconds), adjust the detection of
+ * slow replicas.
+ *
+ * <p>
  * The component binds to any {@link DataSourceFactory} by default. If there are
  * multiple instances available, it is highly recommended to specify the desired
  * one by providing a suitable filter for the {@code driver} reference (i.e.,
@@ -39,7 +80,16 @@ import org.osgi.service.jdbc.DataSourceFactory;
     configurationPolicy = ConfigurationPolicy.REQUIRE)
 public final class Database {
 
+    private static final String ACTIVATION = "activation";
+    private static final String READY = "database.ready";
+
+    private static final String CONNECTION_PREFIX = "connection.";
+    private static final String REPLICA_PREFIX = "replica.";
+    private static final String ROUTING_PREFIX = "routing.";
+
     private ServiceRegistration<?> service;
+    private ManagedDataSource dataSource;
+    private Thread initialization;
 
     @Activate
     public Database(
@@ -51,28 +101,158 @@ public final class Database {
             BundleContext context)
             throws SQLException {
 
-        final var connectionProperties = new Properties();
+        final var primary = new ConnectionGroup();
+        final var replicas = new TreeMap<String, ConnectionGroup>();
+        final var routingProperties = new HashMap<String, Object>();
         final var dataSourceProperties = new Hashtable<String, Object>();
 
         configuration.forEach((k, v) -> {
-            final var connectionPrefix = "connection.";
-            if (k.startsWith(connectionPrefix)) {
-                connectionProperties.put(k.substring(connectionPrefix.length()), v);
+            if (k.startsWith(CONNECTION_PREFIX)) {
+                primary.put(k.substring(CONNECTION_PREFIX.length()), v);
+            } else if (k.startsWith(REPLICA_PREFIX)) {
+                final var name = k.substring(REPLICA_PREFIX.length());
+                final int separator = name.indexOf('.');
+                if (separator > 0) {
+                    replicas.computeIfAbsent(name.substring(0, separator), r -> new ConnectionGroup())
+                        .put(name.substring(separator + 1), v);
+                }
+            } else if (k.startsWith(ROUTING_PREFIX)) {
+                routingProperties.put(k.substring(ROUTING_PREFIX.length()), v);
             } else if (k.startsWith("database.")) {
                 dataSourceProperties.put(k, v);
             }
         });
 
-        final var dataSource = factory.createDataSource(connectionProperties);
-        service = context.registerService(DataSource.class, dataSource, dataSourceProperties);
+        final var activation = Objects.toString(configuration.get(ACTIVATION), "eager");
+        if ("eager".equals(activation)) {
+            dataSourceProperties.put(READY, Boolean.TRUE);
+            register(context, create(factory, primary, replicas, routingProperties), dataSourceProperties);
+            return;
+        }
+
+        final boolean background = "background".equals(activation);
+        if (!background && !"lazy".equals(activation)) {
+            throw new IllegalArgumentException("Unknown activation mode: " + activation);
+        }
+
+        final var deferred = new DeferredDataSource(
+            () -> create(factory, primary, replicas, routingProperties),
+            () -> ready(dataSourceProperties));
+
+        dataSourceProperties.put(READY, Boolean.FALSE);
+        register(context, deferred, dataSourceProperties);
+        if (deferred.isReady()) { // Possible when used by a service listener already
+            ready(dataSourceProperties);
+        }
+
+        if (background) { // A failure is retried on the first use
+            initialization = Thread.ofPlatform().name("Database-activation").daemon().start(deferred::initializeQuietly);
+        }
     }
 
     @Deactivate
     void deactivate() {
-        final var registration = service;
-        service = null;
+        final ServiceRegistration<?> registration;
+        synchronized (this) {
+            registration = service;
+            service = null;
+        }
+
         if (registration != null) {
             registration.unregister();
         }
+
+        if (initialization != null) { // Do not keep connecting to the database any longer
+            initialization.interrupt();
+        }
+
+        dataSource.close(); // After unregistering, so that nobody new gets it
+    }
+
+    private void register(BundleContext context, ManagedDataSource givenDataSource, Hashtable<String, Object> properties) {
+        dataSource = givenDataSource;
+
+        final ServiceRegistration<?> registration;
+        try {
+            registration = context.registerService(DataSource.class, givenDataSource, properties);
+        } catch (RuntimeException e) {
+            givenDataSource.close();
+            throw e;
+        }
+
+        synchronized (this) {
+            service = registration;
+        }
+    }
+
+    private void ready(Hashtable<String, Object> properties) {
+        final ServiceRegistration<?> registration;
+        final Hashtable<String, Object> update;
+        synchronized (this) {
+            registration = service;
+            if (registration == null) {
+                return; // Deactivated meanwhile
+            }
+
+            properties.put(READY, Boolean.TRUE);
+            update = new Hashtable<>(properties);
+        }
+
+        try { // Outside the lock, the update dispatches service events synchronously
+            registration.setProperties(update);
+        } catch (IllegalStateException e) {
+            // Deactivated meanwhile
+        }
+    }
+
+    private static ManagedDataSource create(
+            DataSourceFactory factory,
+            ConnectionGroup primary,
+            Map<String, ConnectionGroup> replicas,
+            Map<String, ?> routingProperties)
+            throws SQLException {
+
+        final var primaryPool = primary.create(factory);
+        if (replicas.isEmpty()) {
+            return primaryPool;
+        }
+
+        final var replicaPools = new LinkedHashMap<String, ConnectionPool>();
+        try {
+            for (var replica : replicas.entrySet()) {
+                replicaPools.put(replica.getKey(), replica.getValue().create(factory));
+            }
+
+            return RoutingDataSource.create(primaryPool, replicaPools, routingProperties);
+        } catch (SQLException | RuntimeException e) {
+            replicaPools.values().forEach(ConnectionPool::close);
+            primaryPool.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Collects the properties for a connection pool.
+     */
+    private static final class ConnectionGroup {
+
+        private final Properties connectionProperties = new Properties();
+        private final Map<String, Object> poolProperties = new HashMap<>();
+
+        ConnectionGroup() {
+            // Default constructor
+        }
+
+        void put(String name, Object value) {
+            if (ConnectionPool.isPoolProperty(name)) {
+                poolProperties.put(name, value);
+            } else {
+                connectionProperties.put(name, value);
+            }
+        }
+
+        ConnectionPool create(DataSourceFactory factory) throws SQLException {
+            return ConnectionPool.create(factory.createDataSource(connectionProperties), poolProperties);
+        }
     }
 }
@@ -0,0 +1,302 @@
+package net.yetamine.lectures.osgi.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * Implements a {@link DataSource} that creates the underlying connection pool,
+ * or generally any {@link ManagedDataSource}, on demand, so that the
+ * registration of the data source does not have to wait for the database.
+ *
+ * <p>
+ * The pool is created either on the first use, or when {@link #initialize()}
+ * is invoked, e.g., from a background thread. When the creation fails, the
+ * next use tries it again. A failure of {@link #initializeQuietly()} is
+ * written to the log writer, if set, and it is attached as a suppressed
+ * exception to the failure of the next attempt, so that it reaches the caller
+ * like any other failure of the data source.
+ *
+ * <p>
+ * Closing waits for a pending creation of the pool only for a limited time, so
+ * that a database that does not respond does not block the caller. When the
+ * creation finishes after closing, the late pool is closed at once instead.
+ */
+final class DeferredDataSource implements ManagedDataSource {
+
+    /** Default time to wait for a pending initialization when closing. */
+    private static final long CLOSE_TIMEOUT = 5_000;
+
+    private final long closeTimeout;
+    private final Initializer initializer;
+    private final Runnable readiness;
+    private final Lock lock = new ReentrantLock();
+    private volatile ManagedDataSource delegate;
+    private volatile PrintWriter logWriter;
+    private volatile SQLException failure;
+    private volatile int loginTimeout;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param givenInitializer
+     *            the initializer of the pool. It must not be {@code null}.
+     * @param givenReadiness
+     *            the action to run when the pool is ready. It must not be
+     *            {@code null}.
+     */
+    DeferredDataSource(Initializer givenInitializer, Runnable givenReadiness) {
+        this(givenInitializer, givenReadiness, CLOSE_TIMEOUT);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param givenInitializer
+     *            the initializer of the pool. It must not be {@code null}.
+     * @param givenReadiness
+     *            the action to run when the pool is ready. It must not be
+     *            {@code null}.
+     * @param givenCloseTimeout
+     *            the time to wait for a pending initialization when closing,
+     *            in milliseconds
+     */
+    DeferredDataSource(Initializer givenInitializer, Runnable givenReadiness, long givenCloseTimeout) {
+        initializer = Objects.requireNonNull(givenInitializer);
+        readiness = Objects.requireNonNull(givenReadiness);
+        closeTimeout = givenCloseTimeout;
+    }
+
+    /**
+     * Creates the pool unless available already.
+     *
+     * @return the pool
+     *
+     * @throws SQLException
+     *             if the pool could not be created
+     */
+    ManagedDataSource initialize() throws SQLException {
+        final ManagedDataSource current = delegate;
+        if (current != null) {
+            return current;
+        }
+
+        final ManagedDataSource result;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new SQLException("Data source closed.");
+            }
+
+            if (delegate != null) {
+                return delegate;
+            }
+
+            try {
+                result = initializer.initialize();
+            } catch (SQLException e) {
+                final SQLException previous = failure;
+                if (previous != null) {
+                    failure = null;
+                    e.addSuppressed(previous);
+                }
+
+                throw e;
+            }
+
+            if (closed) { // Closed while waiting for the pool
+                result.close();
+                throw new SQLException("Data source closed.");
+            }
+
+            failure = null;
+            if (logWriter != null) {
+                result.setLogWriter(logWriter);
+            }
+
+            result.setLoginTimeout(loginTimeout);
+            delegate = result;
+        } finally {
+            lock.unlock();
+        }
+
+        if (closed) { // Closed meanwhile, possibly without waiting for the lock
+            result.close();
+            throw new SQLException("Data source closed.");
+        }
+
+        readiness.run();
+        return result;
+    }
+
+    /**
+     * Creates the pool unless available already, keeping a failure for the
+     * next attempt instead of throwing it.
+     */
+    void initializeQuietly() {
+        try {
+            initialize();
+        } catch (SQLException e) {
+            failure = e;
+            final PrintWriter out = logWriter;
+            if (out != null) {
+                out.println("Could not create the data source: " + e);
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if the pool has been created
+     */
+    boolean isReady() {
+        return (delegate != null);
+    }
+
+    /**
+     * Closes the pool if created. If the pool is being created and the creation
+     * does not finish in time, the creating thread closes the pool when done.
+     *
+     * @see net.yetamine.lectures.osgi.jdbc.ManagedDataSource#close()
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        try { // Wait for a pending initialization, but not forever
+            if (!lock.tryLock(closeTimeout, TimeUnit.MILLISECONDS)) {
+                return; // The initialization closes the late pool itself
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try {
+            final ManagedDataSource current = delegate;
+            if (current != null) {
+                current.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @see javax.sql.DataSource#getConnection()
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return initialize().getConnection();
+    }
+
+    /**
+     * @see javax.sql.DataSource#getConnection(java.lang.String,
+     *      java.lang.String)
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return initialize().getConnection(username, password);
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#getLogWriter()
+     */
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return logWriter;
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#setLogWriter(java.io.PrintWriter)
+     */
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        logWriter = out;
+
+        final ManagedDataSource current = delegate;
+        if (current != null) {
+            current.setLogWriter(out);
+        }
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#setLoginTimeout(int)
+     */
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        loginTimeout = seconds;
+
+        final ManagedDataSource current = delegate;
+        if (current != null) {
+            current.setLoginTimeout(seconds);
+        }
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#getLoginTimeout()
+     */
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return loginTimeout;
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#getParentLogger()
+     */
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        final ManagedDataSource current = delegate;
+        if (current == null) {
+            throw new SQLFeatureNotSupportedException("Data source not ready yet.");
+        }
+
+        return current.getParentLogger();
+    }
+
+    /**
+     * @see java.sql.Wrapper#unwrap(java.lang.Class)
+     */
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : initialize().unwrap(iface);
+    }
+
+    /**
+     * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
+     */
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || initialize().isWrapperFor(iface);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "DeferredDataSource[" + delegate + "]";
+    }
+
+    /**
+     * Creates the pool.
+     */
+    @FunctionalInterface
+    interface Initializer {
+
+        /**
+         * @return the pool
+         *
+         * @throws SQLException
+         *             if the pool could not be created
+         */
+        ManagedDataSource initialize() throws SQLException;
+    }
+}
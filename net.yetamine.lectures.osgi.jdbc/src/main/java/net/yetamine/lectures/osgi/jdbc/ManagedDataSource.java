@@ -0,0 +1,18 @@
+package net.yetamine.lectures.osgi.jdbc;
+
+import javax.sql.DataSource;
+
+/**
+ * A {@link DataSource} that owns resources, which must be released when the
+ * data source is not needed anymore.
+ */
+interface ManagedDataSource extends DataSource, AutoCloseable {
+
+    /**
+     * Releases the resources of the data source.
+     *
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,419 @@
+package net.yetamine.lectures.osgi.jdbc;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Routes connections between a primary database and its read replicas.
+ *
+ * <p>
+ * A connection handed out by this data source is bound to a physical
+ * connection on its first use, i.e., on the first invocation of any method
+ * except for {@link Connection#setReadOnly(boolean)},
+ * {@link Connection#isReadOnly()} and {@link Connection#close()}. If the
+ * connection is read-only at that moment, it is bound to the replica with the
+ * lowest observed latency, otherwise it is bound to the primary. Hence writes
+ * and transactions stick to the primary unless the caller marks the connection
+ * as read-only before using it. A connection bound to a replica cannot become
+ * writable, {@link Connection#setReadOnly(boolean)} fails then.
+ *
+ * <p>
+ * The latency of the replicas is observed by periodic probes. A replica that
+ * fails a probe, responds slower than {@code maxLatency}, or fails to provide a
+ * connection is ejected for {@code ejectionTime} and probed again afterwards.
+ * A replica whose pool is merely exhausted is busy, not failing: the probe
+ * waits for its connection at most {@code maxLatency} and skips the replica
+ * when none becomes free, and the reads go to the next fastest replica. When
+ * no replica is available or all are busy, reads go to the primary.
+ */
+final class RoutingDataSource implements ManagedDataSource {
+
+    private final ConnectionPool primary;
+    private final List<Replica> replicas;
+    private final long maxLatency;
+    private final long ejectionTime;
+    private final ScheduledExecutorService prober;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param givenPrimary
+     *            the primary database. It must not be {@code null}.
+     * @param givenReplicas
+     *            the replicas by their names. It must not be {@code null}.
+     * @param probeInterval
+     *            the interval between the probes in milliseconds. It must be
+     *            positive.
+     * @param givenMaxLatency
+     *            the maximal latency of a probe in milliseconds. It must be
+     *            positive.
+     * @param givenEjectionTime
+     *            the time for which a failing replica is ejected in
+     *            milliseconds
+     */
+    RoutingDataSource(ConnectionPool givenPrimary, Map<String, ConnectionPool> givenReplicas, long probeInterval, long givenMaxLatency, long givenEjectionTime) {
+        if ((probeInterval < 1) || (givenMaxLatency < 1) || (givenEjectionTime < 0)) {
+            throw new IllegalArgumentException("Invalid probe interval, latency or ejection time.");
+        }
+
+        primary = Objects.requireNonNull(givenPrimary);
+        replicas = givenReplicas.entrySet().stream().map(e -> new Replica(e.getKey(), e.getValue())).toList();
+        maxLatency = TimeUnit.MILLISECONDS.toNanos(givenMaxLatency);
+        ejectionTime = TimeUnit.MILLISECONDS.toNanos(givenEjectionTime);
+
+        prober = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "RoutingDataSource-prober");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        prober.scheduleWithFixedDelay(this::probe, 0, probeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a new instance using the routing properties.
+     *
+     * @param primary
+     *            the primary database. It must not be {@code null}.
+     * @param replicas
+     *            the replicas by their names. It must not be {@code null}.
+     * @param properties
+     *            the routing properties. It must not be {@code null}.
+     *
+     * @return the new instance
+     */
+    static RoutingDataSource create(ConnectionPool primary, Map<String, ConnectionPool> replicas, Map<String, ?> properties) {
+        final long probeInterval = longValue(properties, "probeInterval", 1000);
+        final long maxLatency = longValue(properties, "maxLatency", 100);
+        final long ejectionTime = longValue(properties, "ejectionTime", 30_000);
+        return new RoutingDataSource(primary, replicas, probeInterval, maxLatency, ejectionTime);
+    }
+
+    /**
+     * Closes the primary and all replicas.
+     *
+     * @see net.yetamine.lectures.osgi.jdbc.ManagedDataSource#close()
+     */
+    @Override
+    public void close() {
+        prober.shutdownNow();
+        replicas.forEach(replica -> replica.pool.close());
+        primary.close();
+    }
+
+    /**
+     * @see javax.sql.DataSource#getConnection()
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return (Connection) Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            new Handle());
+    }
+
+    /**
+     * @see javax.sql.DataSource#getConnection(java.lang.String,
+     *      java.lang.String)
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Routed connections use the configured credentials only.");
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#getLogWriter()
+     */
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#setLogWriter(java.io.PrintWriter)
+     */
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.setLogWriter(out);
+        for (Replica replica : replicas) {
+            replica.pool.setLogWriter(out);
+        }
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#setLoginTimeout(int)
+     */
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.setLoginTimeout(seconds);
+        for (Replica replica : replicas) {
+            replica.pool.setLoginTimeout(seconds);
+        }
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#getLoginTimeout()
+     */
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    /**
+     * @see javax.sql.CommonDataSource#getParentLogger()
+     */
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return primary.getParentLogger();
+    }
+
+    /**
+     * @see java.sql.Wrapper#unwrap(java.lang.Class)
+     */
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? iface.cast(this) : primary.unwrap(iface);
+    }
+
+    /**
+     * @see java.sql.Wrapper#isWrapperFor(java.lang.Class)
+     */
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "RoutingDataSource[primary=" + primary + ", replicas=" + replicas + "]";
+    }
+
+    private Connection connectReplica() {
+        final var busy = new HashSet<Replica>();
+        for (Replica replica; (replica = fastest(busy)) != null;) {
+            final Connection result;
+            try {
+                result = replica.pool.poll(0);
+            } catch (SQLException e) {
+                replica.eject(System.nanoTime());
+                continue;
+            }
+
+            if (result == null) { // Exhausted, but healthy, so just try another one
+                busy.add(replica);
+                continue;
+            }
+
+            try {
+                result.setReadOnly(true);
+                return result;
+            } catch (SQLException e) {
+                close(result);
+                replica.eject(System.nanoTime());
+            }
+        }
+
+        return null;
+    }
+
+    private Replica fastest(Set<Replica> excluded) {
+        Replica result = null;
+        for (Replica replica : replicas) {
+            if (replica.isAvailable() && !excluded.contains(replica) && ((result == null) || (replica.latency < result.latency))) {
+                result = replica;
+            }
+        }
+
+        return result;
+    }
+
+    private void probe() {
+        for (Replica replica : replicas) {
+            if (!replica.isProbeDue(System.nanoTime())) {
+                continue;
+            }
+
+            try (Connection connection = replica.pool.poll(maxLatency)) {
+                if (connection == null) {
+                    continue; // Exhausted by the clients, hence surely alive
+                }
+
+                final long start = System.nanoTime(); // Do not count waiting for the pool
+                final int timeout = (int) Math.max(TimeUnit.NANOSECONDS.toSeconds(maxLatency), 1);
+                final boolean valid = connection.isValid(timeout);
+                final long now = System.nanoTime();
+                final long latency = now - start;
+                if (valid && (latency <= maxLatency)) {
+                    replica.observe(latency);
+                } else {
+                    replica.eject(now);
+                }
+            } catch (SQLException | RuntimeException e) {
+                replica.eject(System.nanoTime());
+            }
+        }
+    }
+
+    private static void close(Connection connection) {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Nothing to do, the connection is useless anyway
+        }
+    }
+
+    private static long longValue(Map<String, ?> properties, String name, long defaultValue) {
+        final Object value = properties.get(name);
+        return (value != null) ? Long.parseLong(value.toString().trim()) : defaultValue;
+    }
+
+    /**
+     * Keeps the state of a replica.
+     */
+    private final class Replica {
+
+        final String name;
+        final ConnectionPool pool;
+        volatile long latency = -1;     // Not probed yet
+        volatile long ejectedUntil;
+        volatile boolean ejected;
+
+        Replica(String givenName, ConnectionPool givenPool) {
+            name = givenName;
+            pool = givenPool;
+        }
+
+        boolean isAvailable() {
+            return (latency >= 0) && !ejected;
+        }
+
+        boolean isProbeDue(long now) {
+            return !ejected || (now - ejectedUntil >= 0);
+        }
+
+        void observe(long sample) {
+            final long current = latency;
+            latency = (current < 0) ? sample : (current * 4 + sample) / 5; // Exponentially weighted moving average
+            ejected = false;
+        }
+
+        void eject(long now) {
+            ejectedUntil = now + ejectionTime;
+            ejected = true;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return String.format("%s[latency=%d us%s]", name, latency / 1000, ejected ? ", ejected" : "");
+        }
+    }
+
+    /**
+     * Handles the invocations of a routed connection.
+     */
+    private final class Handle implements InvocationHandler {
+
+        private Connection connection;
+        private boolean readOnly;
+        private boolean replica;
+        private boolean closed;
+
+        Handle() {
+            // Default constructor
+        }
+
+        /**
+         * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+         *      java.lang.reflect.Method, java.lang.Object[])
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            final Connection target;
+
+            synchronized (this) {
+                switch (method.getName()) {
+                    case "equals":
+                        return (proxy == args[0]);
+
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+
+                    case "toString":
+                        return "RoutedConnection[" + connection + "]";
+
+                    case "isClosed":
+                        return closed || ((connection != null) && connection.isClosed());
+
+                    case "close":
+                        closed = true;
+                        if (connection == null) {
+                            return null;
+                        }
+
+                        break;
+
+                    case "setReadOnly":
+                        if (connection == null) {
+                            readOnly = (Boolean) args[0];
+                            return null;
+                        }
+
+                        if (replica && !(Boolean) args[0]) {
+                            throw new SQLException("Connection bound to a read replica cannot become writable.");
+                        }
+
+                        break;
+
+                    case "isReadOnly":
+                        if (connection == null) {
+                            return readOnly;
+                        }
+
+                        break;
+
+                    default:
+                        if (closed) {
+                            throw new SQLException("Connection closed.");
+                        }
+
+                        break;
+                }
+
+                if (connection == null) {
+                    final Connection bound = readOnly ? connectReplica() : null;
+                    replica = (bound != null);
+                    connection = replica ? bound : primary.getConnection();
+                }
+
+                target = connection;
+            }
+
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package net.yetamine.lectures.osgi.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import net.yetamine.lectures.osgi.jdbc.api.StatementCacheStatistics;
+
+/**
+ * Caches prepared statements of a single physical connection.
+ *
+ * <p>
+ * The cache is an LRU map keyed by the SQL text and the options of the
+ * statement, i.e., the result set type, concurrency and holdability, or the
+ * requested generated keys. A statement is removed from the cache when handed
+ * out, so that it can never be used by two callers at once, and it returns to
+ * the cache when the caller closes it, or when the borrowed connection is
+ * closed, see {@link ConnectionPool}. A returning statement closes its open
+ * result set and drops its parameters and the batch that was not executed.
+ * A statement whose settings, like the maximal number of rows or the query
+ * timeout, were changed is closed instead, so that the next caller gets the
+ * settings of a freshly prepared statement. When the cache is full, the least
+ * recently used statement is closed.
+ */
+final class StatementCache {
+
+    private static final Set<String> SETTINGS = Set.of(
+        "setMaxRows",
+        "setLargeMaxRows",
+        "setMaxFieldSize",
+        "setFetchSize",
+        "setFetchDirection",
+        "setQueryTimeout",
+        "setEscapeProcessing",
+        "setPoolable",
+        "setCursorName",
+        "closeOnCompletion");
+
+    private final Statistics statistics;
+    private final Map<Key, PreparedStatement> statements;
+    private boolean closed;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param givenStatistics
+     *            the statistics to update. It must not be {@code null}.
+     */
+    StatementCache(Statistics givenStatistics) {
+        statistics = Objects.requireNonNull(givenStatistics);
+        statements = new LinkedHashMap<>(16, 0.75F, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() <= statistics.maxStatements) {
+                    return false;
+                }
+
+                statistics.evictions.increment();
+                close(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Provides a prepared statement for the given arguments of
+     * {@link Connection#prepareStatement(String)} or its overloads.
+     *
+     * @param connection
+     *            the connection to be returned by the statement. It must not
+     *            be {@code null}.
+     * @param args
+     *            the arguments of the method. It must not be {@code null}.
+     * @param preparation
+     *            the preparation of the statement on a miss. It must not be
+     *            {@code null}.
+     *
+     * @return the statement
+     *
+     * @throws SQLException
+     *             if the preparation failed
+     */
+    PreparedStatement prepare(Connection connection, Object[] args, Preparation preparation) throws SQLException {
+        final Key key = Key.of(args);
+
+        PreparedStatement result;
+        synchronized (this) {
+            result = statements.remove(key);
+        }
+
+        if ((result == null) || result.isClosed()) {
+            statistics.misses.increment();
+            result = preparation.prepare();
+        } else {
+            statistics.hits.increment();
+        }
+
+        return (PreparedStatement) Proxy.newProxyInstance(
+            PreparedStatement.class.getClassLoader(),
+            new Class<?>[] { PreparedStatement.class },
+            new Handle(connection, key, result));
+    }
+
+    /**
+     * Closes all cached statements.
+     */
+    synchronized void close() {
+        closed = true;
+        statements.values().forEach(StatementCache::close);
+        statements.clear();
+    }
+
+    private void release(Key key, PreparedStatement statement, boolean modified) {
+        if (modified) {
+            close(statement); // Restoring all settings reliably is not possible
+            return;
+        }
+
+        try {
+            if (statement.isClosed()) {
+                return;
+            }
+
+            final ResultSet results = statement.getResultSet();
+            if (results != null) {
+                results.close();
+            }
+
+            statement.clearBatch(); // Drop the rows of a failed batch
+            statement.clearParameters();
+            statement.clearWarnings();
+        } catch (SQLException e) {
+            close(statement);
+            return;
+        }
+
+        synchronized (this) {
+            if (!closed && (statements.putIfAbsent(key, statement) == null)) {
+                return;
+            }
+        }
+
+        close(statement); // A duplicate, or not needed anymore
+    }
+
+    private static void close(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Nothing to do, the statement is not needed anyway
+        }
+    }
+
+    /**
+     * Prepares a statement on a cache miss.
+     */
+    @FunctionalInterface
+    interface Preparation {
+
+        /**
+         * @return the prepared statement
+         *
+         * @throws SQLException
+         *             if the preparation failed
+         */
+        PreparedStatement prepare() throws SQLException;
+    }
+
+    /**
+     * Collects the statistics of the caches of all pooled connections.
+     */
+    static final class Statistics implements StatementCacheStatistics {
+
+        final int maxStatements;
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+        final LongAdder evictions = new LongAdder();
+
+        /**
+         * Creates a new instance.
+         *
+         * @param givenMaxStatements
+         *            the maximal number of statements cached for a connection
+         */
+        Statistics(int givenMaxStatements) {
+            maxStatements = givenMaxStatements;
+        }
+
+        /**
+         * @see net.yetamine.lectures.osgi.jdbc.api.StatementCacheStatistics#maxStatements()
+         */
+        @Override
+        public int maxStatements() {
+            return maxStatements;
+        }
+
+        /**
+         * @see net.yetamine.lectures.osgi.jdbc.api.StatementCacheStatistics#hits()
+         */
+        @Override
+        public long hits() {
+            return hits.sum();
+        }
+
+        /**
+         * @see net.yetamine.lectures.osgi.jdbc.api.StatementCacheStatistics#misses()
+         */
+        @Override
+        public long misses() {
+            return misses.sum();
+        }
+
+        /**
+         * @see net.yetamine.lectures.osgi.jdbc.api.StatementCacheStatistics#evictions()
+         */
+        @Override
+        public long evictions() {
+            return evictions.sum();
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return String.format("StatementCacheStatistics[maxStatements=%d, hits=%d, misses=%d, evictions=%d]",
+                maxStatements, hits(), misses(), evictions());
+        }
+    }
+
+    /**
+     * Identifies a statement by its SQL text and options.
+     *
+     * @param sql
+     *            the SQL text
+     * @param options
+     *            the remaining arguments of the preparation
+     */
+    private record Key(String sql, List<?> options) {
+
+        static Key of(Object[] args) {
+            final Object[] options = new Object[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                final Object option = args[i];
+                options[i - 1] = (option instanceof int[] indexes) ? Arrays.stream(indexes).boxed().toList()
+                    : (option instanceof String[] names) ? Arrays.asList(names)
+                    : option;
+            }
+
+            return new Key((String) args[0], Arrays.asList(options));
+        }
+    }
+
+    /**
+     * Handles the invocations of a statement handed out from the cache.
+     */
+    private final class Handle implements InvocationHandler {
+
+        private final Connection connection;
+        private final Key key;
+        private volatile PreparedStatement statement;
+        private volatile boolean modified;
+
+        Handle(Connection givenConnection, Key givenKey, PreparedStatement givenStatement) {
+            connection = givenConnection;
+            statement = givenStatement;
+            key = givenKey;
+        }
+
+        /**
+         * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object,
+         *      java.lang.reflect.Method, java.lang.Object[])
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    close();
+                    return null;
+
+                case "isClosed":
+                    return (statement == null);
+
+                case "getConnection":
+                    return connection;
+
+                case "equals":
+                    return (proxy == args[0]);
+
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+
+                case "toString":
+                    return "CachedStatement[" + statement + "]";
+
+                default:
+                    break;
+            }
+
+            final PreparedStatement target = statement;
+            if (target == null) {
+                throw new SQLException("Statement closed.");
+            }
+
+            if (SETTINGS.contains(method.getName())) {
+                modified = true;
+            }
+
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void close() {
+            final PreparedStatement released;
+
+            synchronized (this) {
+                released = statement;
+                statement = null;
+            }
+
+            if (released != null) {
+                release(key, released, modified);
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package net.yetamine.lectures.osgi.jdbc.api;
+
+import java.util.concurrent.CompletionStage;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Executes data-modifying statements in batches.
+ *
+ * <p>
+ * The writes are queued and executed later as JDBC batches. All writes from a
+ * batch are committed at once, therefore they succeed or fail together. The
+ * returned stages complete on the thread that executes the batch, so that the
+ * dependent actions should not block; use the asynchronous variants of the
+ * {@link CompletionStage} methods for anything expensive.
+ */
+@ProviderType
+public interface BatchWriter {
+
+    /**
+     * Queues a write.
+     *
+     * <p>
+     * When the queue is full, this method may block for a while, or return a
+     * stage that fails with {@link java.util.concurrent.RejectedExecutionException}
+     * if the queue does not accept the write in time.
+     *
+     * @param sql
+     *            the SQL statement to execute. It must not be {@code null}.
+     * @param parameters
+     *            the parameters of the statement. It must not be {@code null}.
+     *
+     * @return the stage providing the update count of the statement, or
+     *         {@link java.sql.Statement#SUCCESS_NO_INFO} if the driver did not
+     *         report it
+     */
+    CompletionStage<Integer> write(String sql, Object... parameters);
+}
@@ -0,0 +1,35 @@
+package net.yetamine.lectures.osgi.jdbc.api;
+
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Provides the statistics of a prepared statement cache.
+ *
+ * <p>
+ * A {@link javax.sql.DataSource} supporting the statement caching provides
+ * this interface via {@link javax.sql.DataSource#unwrap(Class)}.
+ */
+@ProviderType
+public interface StatementCacheStatistics {
+
+    /**
+     * @return the maximal number of statements cached for a connection, zero
+     *         if the caching is disabled
+     */
+    int maxStatements();
+
+    /**
+     * @return the number of statements served from the cache
+     */
+    long hits();
+
+    /**
+     * @return the number of statements that had to be prepared
+     */
+    long misses();
+
+    /**
+     * @return the number of cached statements closed to make room for others
+     */
+    long evictions();
+}
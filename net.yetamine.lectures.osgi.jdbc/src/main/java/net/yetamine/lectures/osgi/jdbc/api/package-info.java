@@ -0,0 +1,5 @@
+/**
+ * The API for the services provided by the JDBC bundle.
+ */
+@org.osgi.annotation.versioning.Version("1.0.0")
+package net.yetamine.lectures.osgi.jdbc.api;
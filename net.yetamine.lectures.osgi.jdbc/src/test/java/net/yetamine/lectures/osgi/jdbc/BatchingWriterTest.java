@@ -0,0 +1,179 @@
+package net.yetamine.lectures.osgi.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link BatchingWriter} with an embedded database, which can block
+ * providing connections like a database that does not respond.
+ */
+final class BatchingWriterTest {
+
+    private static final String INSERT = "INSERT INTO item VALUES (?)";
+
+    private final CountDownLatch blocked = new CountDownLatch(1);
+    private final CountDownLatch proceed = new CountDownLatch(1);
+    private volatile boolean blocking;
+    private JdbcDataSource database;
+    private BatchingWriter writer;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = new JdbcDataSource();
+        database.setURL("jdbc:h2:mem:writer-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        try (Connection connection = database.getConnection(); var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE item (amount INT PRIMARY KEY)");
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        proceed.countDown();
+        if (writer != null) {
+            writer.deactivate();
+        }
+    }
+
+    @Test
+    void testFlushedWhenBatchFull() throws Exception {
+        writer = writer(Map.of("batchSize", "3", "maxDelay", "60000"));
+
+        final var first = write(1);
+        final var second = write(2);
+        final var third = write(3);
+
+        assertEquals(1, await(first)); // Long before the delay expires
+        assertEquals(1, await(second));
+        assertEquals(1, await(third));
+        assertEquals(3, count());
+    }
+
+    @Test
+    void testFlushedAfterDelay() throws Exception {
+        writer = writer(Map.of("batchSize", "100", "maxDelay", "50"));
+
+        final long start = System.nanoTime();
+        final var write = write(1);
+        assertEquals(1, await(write));
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(1, count());
+    }
+
+    @Test
+    void testRejectedWhenQueueFull() throws Exception {
+        blocking = true;
+        writer = writer(Map.of("batchSize", "1", "maxDelay", "0", "queueCapacity", "1", "offerTimeout", "10"));
+
+        final var taken = write(1);
+        blocked.await(); // The flusher holds the first write now
+        final var queued = write(2);
+        final var rejected = write(3);
+
+        assertInstanceOf(RejectedExecutionException.class, failure(rejected));
+
+        proceed.countDown();
+        assertEquals(1, await(taken));
+        assertEquals(1, await(queued));
+        assertEquals(2, count());
+    }
+
+    @Test
+    void testFailedBatchRolledBack() throws Exception {
+        writer = writer(Map.of("batchSize", "2", "maxDelay", "60000"));
+
+        final var valid = write(1);
+        final var duplicate = write(1);
+
+        assertInstanceOf(SQLException.class, failure(valid));
+        assertInstanceOf(SQLException.class, failure(duplicate));
+        assertEquals(0, count());
+
+        final var next = write(2); // The writer goes on
+        assertEquals(1, await(write(3)));
+        assertEquals(1, await(next));
+    }
+
+    @Test
+    void testDeactivationDoesNotWaitForStuckDatabase() throws Exception {
+        blocking = true;
+        writer = writer(Map.of("batchSize", "1", "maxDelay", "0", "closeTimeout", "100"));
+
+        write(1);
+        blocked.await();
+        final var queued = write(2);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), writer::deactivate);
+        assertInstanceOf(RejectedExecutionException.class, failure(queued));
+        assertInstanceOf(RejectedExecutionException.class, failure(write(3)));
+    }
+
+    private BatchingWriter writer(Map<String, String> configuration) {
+        return new BatchingWriter(blockingDataSource(), configuration);
+    }
+
+    private CompletionStage<Integer> write(int amount) {
+        return writer.write(INSERT, amount);
+    }
+
+    private int count() throws SQLException {
+        try (Connection connection = database.getConnection();
+                var statement = connection.createStatement();
+                var results = statement.executeQuery("SELECT COUNT(*) FROM item")) {
+
+            results.next();
+            return results.getInt(1);
+        }
+    }
+
+    /**
+     * Makes a data source that blocks providing connections while
+     * {@link #blocking} is set, until {@link #proceed} opens.
+     *
+     * @return the data source
+     */
+    private DataSource blockingDataSource() {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+            if (blocking && "getConnection".equals(method.getName())) {
+                blocked.countDown();
+                proceed.await();
+            }
+
+            try {
+                return method.invoke(database, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+    }
+
+    private static int await(CompletionStage<Integer> stage) throws Exception {
+        return stage.toCompletableFuture().get(5, TimeUnit.SECONDS);
+    }
+
+    private static Throwable failure(CompletionStage<Integer> stage) {
+        final CompletableFuture<Integer> future = stage.toCompletableFuture();
+        return assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS)).getCause();
+    }
+}
@@ -0,0 +1,228 @@
+package net.yetamine.lectures.osgi.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+import org.h2.jdbc.JdbcConnection;
+import org.h2.jdbc.JdbcStatement;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link ConnectionPool} with an embedded database, counting the
+ * physical connections that the pool opens and closes.
+ */
+final class ConnectionPoolTest {
+
+    private final List<Connection> physical = new CopyOnWriteArrayList<>();
+    private final AtomicInteger closed = new AtomicInteger();
+    private JdbcDataSource database;
+    private ConnectionPool pool;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        database = new JdbcDataSource();
+        database.setURL("jdbc:h2:mem:pool-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        database.setUser("sa");
+        try (Connection connection = database.getConnection(); var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE item (amount INT)");
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    @Test
+    void testPrewarmed() throws SQLException {
+        pool = pool(Map.of("initialPoolSize", "2", "maxPoolSize", "4"));
+        assertEquals(2, physical.size());
+
+        try (Connection first = pool.getConnection(); Connection second = pool.getConnection()) {
+            assertTrue(first.isValid(1));
+            assertTrue(second.isValid(1));
+        }
+
+        assertEquals(2, physical.size()); // No need to open more
+    }
+
+    @Test
+    void testMaxPoolSize() throws SQLException {
+        pool = pool(Map.of("maxPoolSize", "2"));
+        pool.setLoginTimeout(1);
+
+        final Connection first = pool.getConnection();
+        final Connection second = pool.getConnection();
+        assertNull(pool.poll(0));
+        assertThrows(SQLException.class, pool::getConnection);
+        assertEquals(2, physical.size());
+
+        first.close();
+        try (Connection third = pool.getConnection()) {
+            assertNotNull(third);
+        }
+
+        second.close();
+        assertEquals(2, physical.size());
+    }
+
+    @Test
+    void testIdleEvictionKeepsMinPoolSize() throws Exception {
+        pool = pool(Map.of("minPoolSize", "1", "maxPoolSize", "4", "maxIdleTime", "1"));
+
+        final List<Connection> borrowed = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            borrowed.add(pool.getConnection());
+        }
+
+        for (Connection connection : borrowed) {
+            connection.close();
+        }
+
+        assertEquals(3, physical.size());
+        assertEquals(0, closed.get());
+
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while ((closed.get() < 2) && (System.nanoTime() - deadline < 0)) {
+            TimeUnit.MILLISECONDS.sleep(50);
+        }
+
+        TimeUnit.MILLISECONDS.sleep(600); // Let the next eviction run, it must keep the last one
+        assertEquals(2, closed.get());
+
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+
+        assertEquals(3, physical.size());
+    }
+
+    @Test
+    void testSettingsRestoredOnReturn() throws SQLException {
+        pool = pool(Map.of("maxPoolSize", "1"));
+
+        final int isolation;
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            isolation = connection.getTransactionIsolation();
+            connection.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+            connection.setAutoCommit(false);
+            statement.executeUpdate("INSERT INTO item VALUES (1)");
+            connection.setReadOnly(true);
+        } // Returned without commit
+
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            assertTrue(connection.getAutoCommit());
+            assertFalse(connection.isReadOnly());
+            assertEquals(isolation, connection.getTransactionIsolation());
+
+            try (var results = statement.executeQuery("SELECT COUNT(*) FROM item")) {
+                results.next();
+                assertEquals(0, results.getInt(1)); // Rolled back
+            }
+        }
+
+        assertEquals(1, physical.size());
+    }
+
+    @Test
+    void testBrokenIdleConnectionReplaced() throws Exception {
+        pool = pool(Map.of("initialPoolSize", "1", "maxPoolSize", "1"));
+
+        physical.get(0).close(); // Broken while idle, e.g., closed by the database
+        TimeUnit.MILLISECONDS.sleep(1100); // Idle long enough to be validated
+
+        try (Connection connection = pool.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+
+        assertEquals(2, physical.size());
+    }
+
+    @Test
+    void testPhysicalConnectionNotRevealed() throws SQLException {
+        pool = pool(Map.of("maxPoolSize", "1"));
+
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            assertFalse(connection.isWrapperFor(JdbcConnection.class));
+            assertThrows(SQLException.class, () -> connection.unwrap(JdbcConnection.class));
+            assertSame(connection, connection.unwrap(Connection.class));
+
+            assertThrows(SQLException.class, () -> statement.unwrap(JdbcStatement.class));
+            assertSame(connection, statement.getConnection());
+        }
+    }
+
+    @Test
+    void testExplicitCredentialsNotPooled() throws SQLException {
+        pool = pool(Map.of("maxPoolSize", "1"));
+
+        try (Connection pooled = pool.getConnection(); Connection unpooled = pool.getConnection("sa", "")) {
+            assertTrue(pooled.isValid(1));
+            assertNull(pool.poll(0));
+            assertTrue(unpooled.isValid(1)); // Even with the pool exhausted
+            assertTrue(unpooled.isWrapperFor(JdbcConnection.class));
+        }
+
+        assertThrows(SQLException.class, () -> pool.getConnection("sa", "wrong").close());
+        assertEquals(1, physical.size());
+    }
+
+    private ConnectionPool pool(Map<String, String> properties) throws SQLException {
+        return ConnectionPool.create(countingDataSource(), properties);
+    }
+
+    /**
+     * Makes a data source that records the physical connections it opens and
+     * counts those that get closed.
+     *
+     * @return the data source
+     */
+    private DataSource countingDataSource() {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+            if (!"getConnection".equals(method.getName()) || (args != null)) {
+                return invoke(database, method, args);
+            }
+
+            final Connection connection = database.getConnection();
+            physical.add(connection);
+            return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, (c, m, a) -> {
+                if ("close".equals(m.getName()) && !connection.isClosed()) {
+                    closed.incrementAndGet();
+                }
+
+                return invoke(connection, m, a);
+            });
+        });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
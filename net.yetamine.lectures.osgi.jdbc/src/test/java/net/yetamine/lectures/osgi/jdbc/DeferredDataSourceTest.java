@@ -0,0 +1,83 @@
+package net.yetamine.lectures.osgi.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link DeferredDataSource} with a factory that blocks like a database
+ * that does not respond.
+ */
+final class DeferredDataSourceTest {
+
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch proceed = new CountDownLatch(1);
+    private final AtomicReference<ConnectionPool> created = new AtomicReference<>();
+    private final AtomicBoolean ready = new AtomicBoolean();
+
+    @Test
+    void testInitializedOnDemand() throws SQLException {
+        proceed.countDown();
+
+        final var deferred = new DeferredDataSource(this::create, () -> ready.set(true), 100);
+        assertFalse(deferred.isReady());
+        try (Connection connection = deferred.getConnection()) {
+            assertTrue(connection.isValid(1));
+        }
+
+        assertTrue(deferred.isReady());
+        assertTrue(ready.get());
+
+        deferred.close();
+        assertThrows(SQLException.class, () -> created.get().getConnection());
+        assertThrows(SQLException.class, deferred::getConnection);
+    }
+
+    @Test
+    void testCloseDoesNotWaitForBlockedInitialization() throws InterruptedException {
+        final var deferred = new DeferredDataSource(this::create, () -> ready.set(true), 100);
+        final var initialization = Thread.ofPlatform().start(deferred::initializeQuietly);
+        started.await();
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), deferred::close);
+
+        proceed.countDown(); // Let the initialization finish late
+        initialization.join();
+
+        final ConnectionPool late = created.get();
+        assertNotNull(late);
+        assertThrows(SQLException.class, late::getConnection);
+        assertFalse(deferred.isReady());
+        assertFalse(ready.get());
+        assertThrows(SQLException.class, deferred::getConnection);
+    }
+
+    private ManagedDataSource create() throws SQLException {
+        started.countDown();
+
+        try {
+            proceed.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted.", e);
+        }
+
+        final var source = new JdbcDataSource();
+        source.setURL("jdbc:h2:mem:deferred-" + System.nanoTime());
+        final ConnectionPool result = ConnectionPool.create(source, Map.of("maxPoolSize", "1"));
+        created.set(result);
+        return result;
+    }
+}
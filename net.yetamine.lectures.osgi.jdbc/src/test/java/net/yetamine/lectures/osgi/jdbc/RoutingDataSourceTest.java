@@ -0,0 +1,302 @@
+package net.yetamine.lectures.osgi.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.sql.DataSource;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link RoutingDataSource} with several embedded databases, each of
+ * which knows its own name, so that the tests can see where a connection
+ * goes. The replicas with names starting with {@code slow} validate their
+ * connections with the delay given by {@link #slowness}.
+ */
+final class RoutingDataSourceTest {
+
+    private static final Map<String, String> PROPERTIES = Map.of("probeInterval", "10", "maxLatency", "1000", "ejectionTime", "50");
+
+    private RoutingDataSource routing;
+    private volatile long slowness;
+
+    @AfterEach
+    void tearDown() {
+        if (routing != null) {
+            routing.close();
+        }
+    }
+
+    @Test
+    void testWritesGoToPrimary() throws Exception {
+        routing = routing("replica1", "replica2");
+        awaitReplica();
+
+        try (Connection connection = routing.getConnection(); var statement = connection.createStatement()) {
+            assertEquals("primary", origin(connection));
+            assertEquals(1, statement.executeUpdate("INSERT INTO log VALUES ('written')"));
+        }
+    }
+
+    @Test
+    void testReadsGoToReplica() throws Exception {
+        routing = routing("replica1", "replica2");
+        awaitReplica();
+
+        for (int i = 0; i < 10; i++) {
+            try (Connection connection = routing.getConnection()) {
+                connection.setReadOnly(true);
+                assertTrue(Set.of("replica1", "replica2").contains(origin(connection)));
+            }
+        }
+    }
+
+    @Test
+    void testUnavailableReplicaSkipped() throws Exception {
+        routing = routing("replica1", null);
+        awaitReplica();
+
+        for (int i = 0; i < 10; i++) {
+            try (Connection connection = routing.getConnection()) {
+                connection.setReadOnly(true);
+                assertEquals("replica1", origin(connection));
+            }
+        }
+    }
+
+    @Test
+    void testReadsFallBackToPrimary() throws Exception {
+        routing = routing(null, null);
+        TimeUnit.MILLISECONDS.sleep(100); // Let the probes fail
+
+        try (Connection connection = routing.getConnection()) {
+            connection.setReadOnly(true);
+            assertEquals("primary", origin(connection));
+        }
+    }
+
+    @Test
+    void testReplicaCannotBecomeWritable() throws Exception {
+        routing = routing("replica1", "replica2");
+        awaitReplica();
+
+        try (Connection connection = routing.getConnection()) {
+            connection.setReadOnly(true);
+            assertTrue(origin(connection).startsWith("replica"));
+            assertThrows(SQLException.class, () -> connection.setReadOnly(false));
+            connection.setReadOnly(true); // Still fine
+        }
+    }
+
+    @Test
+    void testPrimaryMayBecomeReadOnly() throws Exception {
+        routing = routing("replica1", "replica2");
+        awaitReplica();
+
+        try (Connection connection = routing.getConnection()) {
+            assertEquals("primary", origin(connection));
+            connection.setReadOnly(true);
+            connection.setReadOnly(false);
+            assertEquals("primary", origin(connection));
+        }
+    }
+
+    @Test
+    void testLowestLatencyPreferred() throws Exception {
+        slowness = 20;
+        routing = routing("slow1", "replica2");
+        awaitOrigin("replica2");
+
+        for (int i = 0; i < 10; i++) {
+            try (Connection connection = routing.getConnection()) {
+                connection.setReadOnly(true);
+                assertEquals("replica2", origin(connection));
+            }
+        }
+    }
+
+    @Test
+    void testSlowReplicaEjectedAndProbedAgain() throws Exception {
+        routing = routingWith(Map.of("probeInterval", "10", "maxLatency", "50", "ejectionTime", "100"), "slow1");
+        awaitOrigin("slow1");
+
+        slowness = 200; // Slower than the maximal latency
+        awaitOrigin("primary");
+
+        slowness = 0;
+        awaitOrigin("slow1");
+    }
+
+    @Test
+    void testBusyReplicaNotEjected() throws Exception {
+        routing = routingWith(Map.of("probeInterval", "10", "maxLatency", "50", "ejectionTime", "60000"), "replica1");
+        awaitReplica();
+
+        final List<Connection> borrowed = new ArrayList<>();
+        try {
+            for (int i = 0; i < 4; i++) { // Exhaust the pool of the replica
+                final Connection connection = routing.getConnection();
+                borrowed.add(connection);
+                connection.setReadOnly(true);
+                assertEquals("replica1", origin(connection));
+            }
+
+            try (Connection connection = routing.getConnection()) {
+                connection.setReadOnly(true);
+                assertEquals("primary", origin(connection));
+            }
+
+            TimeUnit.MILLISECONDS.sleep(200); // Let the prober find the pool exhausted
+        } finally {
+            for (Connection connection : borrowed) {
+                connection.close();
+            }
+        }
+
+        try (Connection connection = routing.getConnection()) {
+            connection.setReadOnly(true);
+            assertEquals("replica1", origin(connection)); // Would be ejected for a minute
+        }
+    }
+
+    private void awaitReplica() throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() - deadline < 0) {
+            try (Connection connection = routing.getConnection()) {
+                connection.setReadOnly(true);
+                if (!"primary".equals(origin(connection))) {
+                    return;
+                }
+            }
+
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        throw new AssertionError("No replica became available.");
+    }
+
+    private void awaitOrigin(String expected) throws Exception {
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (System.nanoTime() - deadline < 0) {
+            try (Connection connection = routing.getConnection()) {
+                connection.setReadOnly(true);
+                if (expected.equals(origin(connection))) {
+                    return;
+                }
+            }
+
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+
+        throw new AssertionError("Reads did not go to " + expected + ".");
+    }
+
+    /**
+     * Creates the routing for a fresh primary and the given replicas.
+     *
+     * @param replicas
+     *            the names of the replicas, {@code null} for a replica that
+     *            does not exist
+     *
+     * @return the routing data source
+     *
+     * @throws SQLException
+     *             if a database could not be created
+     */
+    private RoutingDataSource routing(String... replicas) throws SQLException {
+        return routingWith(PROPERTIES, replicas);
+    }
+
+    private RoutingDataSource routingWith(Map<String, String> properties, String... replicas) throws SQLException {
+        final String prefix = "routing-" + System.nanoTime() + "-";
+        final var primary = pool(database(prefix, "primary"));
+        final var replicaPools = new LinkedHashMap<String, ConnectionPool>();
+        for (int i = 0; i < replicas.length; i++) {
+            final String name = replicas[i];
+            if (name == null) {
+                replicaPools.put("r" + i, pool(missing(prefix + i)));
+            } else {
+                final DataSource source = database(prefix, name);
+                replicaPools.put("r" + i, pool(name.startsWith("slow") ? slow(source) : source));
+            }
+        }
+
+        return RoutingDataSource.create(primary, replicaPools, properties);
+    }
+
+    /**
+     * Makes the connections of the given data source validate with a delay.
+     *
+     * @param source
+     *            the data source to wrap
+     *
+     * @return the slow data source
+     */
+    private DataSource slow(DataSource source) {
+        return (DataSource) Proxy.newProxyInstance(DataSource.class.getClassLoader(), new Class<?>[] { DataSource.class }, (proxy, method, args) -> {
+            final Object result = invoke(source, method, args);
+            if (!"getConnection".equals(method.getName())) {
+                return result;
+            }
+
+            final var connection = (Connection) result;
+            return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, (c, m, a) -> {
+                if ("isValid".equals(m.getName())) {
+                    TimeUnit.MILLISECONDS.sleep(slowness);
+                }
+
+                return invoke(connection, m, a);
+            });
+        });
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static ConnectionPool pool(DataSource source) throws SQLException {
+        return ConnectionPool.create(source, Map.of("maxPoolSize", "4"));
+    }
+
+    private static JdbcDataSource database(String prefix, String name) throws SQLException {
+        final var result = new JdbcDataSource();
+        result.setURL("jdbc:h2:mem:" + prefix + name + ";DB_CLOSE_DELAY=-1");
+        try (Connection connection = result.getConnection(); var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE origin (name VARCHAR(32))");
+            statement.execute("INSERT INTO origin VALUES ('" + name + "')");
+            statement.execute("CREATE TABLE log (entry VARCHAR(32))");
+        }
+
+        return result;
+    }
+
+    private static JdbcDataSource missing(String name) {
+        final var result = new JdbcDataSource();
+        result.setURL("jdbc:h2:mem:" + name + ";IFEXISTS=TRUE");
+        return result;
+    }
+
+    private static String origin(Connection connection) throws SQLException {
+        try (var statement = connection.createStatement(); var results = statement.executeQuery("SELECT name FROM origin")) {
+            results.next();
+            return results.getString(1);
+        }
+    }
+}
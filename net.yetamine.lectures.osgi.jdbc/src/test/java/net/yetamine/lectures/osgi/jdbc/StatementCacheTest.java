@@ -0,0 +1,98 @@
+package net.yetamine.lectures.osgi.jdbc;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+import net.yetamine.lectures.osgi.jdbc.api.StatementCacheStatistics;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link StatementCache} through a {@link ConnectionPool} with a single
+ * connection, so that all borrowers share the same cache.
+ */
+final class StatementCacheTest {
+
+    private static final String INSERT = "INSERT INTO item VALUES (?)";
+    private static final String SELECT = "SELECT amount FROM item ORDER BY amount";
+
+    private ConnectionPool pool;
+    private StatementCacheStatistics statistics;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        final var source = new JdbcDataSource();
+        source.setURL("jdbc:h2:mem:statements-" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        pool = ConnectionPool.create(source, Map.of("maxPoolSize", "1", "maxStatements", "4"));
+        statistics = pool.unwrap(StatementCacheStatistics.class);
+
+        try (Connection connection = pool.getConnection(); var statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE item (amount INT)");
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void testUnchangedStatementReused() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            connection.prepareStatement(SELECT).close();
+            connection.prepareStatement(SELECT).close();
+        }
+
+        assertEquals(1, statistics.misses());
+        assertEquals(1, statistics.hits());
+    }
+
+    @Test
+    void testFailedBatchNotLeaked() throws SQLException {
+        try (Connection connection = pool.getConnection(); PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            statement.setInt(1, 1);
+            statement.addBatch();
+            assertThrows(SQLException.class, () -> statement.setObject(5, 2)); // Fails in the middle of the batch
+        }
+
+        try (Connection connection = pool.getConnection(); PreparedStatement statement = connection.prepareStatement(INSERT)) {
+            assertEquals(1, statistics.hits());
+            statement.setInt(1, 2);
+            statement.addBatch();
+            assertArrayEquals(new int[] { 1 }, statement.executeBatch());
+        }
+
+        assertEquals(2, single("SELECT amount FROM item"));
+        assertEquals(1, single("SELECT COUNT(*) FROM item"));
+    }
+
+    @Test
+    void testChangedSettingsNotReused() throws SQLException {
+        try (Connection connection = pool.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT)) {
+                statement.setMaxRows(1);
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(SELECT)) {
+                assertEquals(0, statement.getMaxRows());
+            }
+        }
+
+        assertEquals(2, statistics.misses());
+        assertEquals(0, statistics.hits());
+    }
+
+    private int single(String sql) throws SQLException {
+        try (Connection connection = pool.getConnection(); var statement = connection.createStatement(); var results = statement.executeQuery(sql)) {
+            results.next();
+            return results.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package net.yetamine.lectures.osgi.startup;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Timing of a bundle.
+ *
+ * <p>
+ * The durations are {@code null} when the respective phase was not observed,
+ * e.g., when the bundle was resolved before the recording started.
+ *
+ * @param id
+ *            the bundle identifier
+ * @param symbolicName
+ *            the symbolic name of the bundle
+ * @param resolve
+ *            the duration of the resolve operation that resolved the bundle.
+ *            Note that a single operation may resolve multiple bundles.
+ * @param start
+ *            the duration of starting the bundle, which includes the start of
+ *            the bundle activator
+ * @param started
+ *            the time when the bundle started
+ * @param services
+ *            the timings of the services that the bundle registered after it
+ *            started, never {@code null}
+ */
+public record BundleTiming(long id, String symbolicName, Duration resolve, Duration start, Duration started, List<ServiceTiming> services) {
+
+    /**
+     * Creates a new instance.
+     *
+     * @param id
+     *            the bundle identifier
+     * @param symbolicName
+     *            the symbolic name of the bundle
+     * @param resolve
+     *            the duration of the resolve operation
+     * @param start
+     *            the duration of starting the bundle
+     * @param started
+     *            the time when the bundle started
+     * @param services
+     *            the timings of the services. It must not be {@code null}.
+     */
+    public BundleTiming {
+        services = List.copyOf(services);
+    }
+
+    /**
+     * Returns the time when the bundle got ready, i.e., when it started and
+     * registered all services that it registered after starting.
+     *
+     * @return the time when the bundle got ready, or {@code null} if the bundle
+     *         did not start while recording
+     */
+    public Duration ready() {
+        Duration result = started;
+        for (ServiceTiming service : services) {
+            if ((result == null) || (result.compareTo(service.registered()) < 0)) {
+                result = service.registered();
+            }
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,22 @@
+package net.yetamine.lectures.osgi.startup;
+
+import java.time.Duration;
+
+/**
+ * Timing of a service registered after its bundle started, typically by a
+ * Declarative Services component whose references got satisfied.
+ *
+ * @param id
+ *            the service identifier
+ * @param name
+ *            the name of the service, i.e., the name of the component if the
+ *            service comes from a component, otherwise the names of the
+ *            service interfaces
+ * @param registered
+ *            the time when the service was registered
+ * @param waited
+ *            the duration since the bundle started until the registration,
+ *            which includes waiting for the dependencies and activating the
+ *            component
+ */
+public record ServiceTiming(long id, String name, Duration registered, Duration waited) {}
@@ -0,0 +1,17 @@
+package net.yetamine.lectures.osgi.startup;
+
+import java.time.Duration;
+
+/**
+ * A step of the startup.
+ *
+ * @param name
+ *            the description of the step
+ * @param bundleId
+ *            the identifier of the bundle that performed the step
+ * @param finished
+ *            the time when the step finished
+ * @param took
+ *            the duration of the step
+ */
+public record StartupStep(String name, long bundleId, Duration finished, Duration took) {}
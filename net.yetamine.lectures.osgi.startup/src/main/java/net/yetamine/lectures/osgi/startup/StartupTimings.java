@@ -0,0 +1,49 @@
+package net.yetamine.lectures.osgi.startup;
+
+import java.util.List;
+import org.osgi.annotation.versioning.ProviderType;
+
+/**
+ * Provides the timings recorded while the framework starts the bundles.
+ *
+ * <p>
+ * All times are relative to the start of the recording, which begins when the
+ * recording bundle starts. Hence the recording bundle should start as soon as
+ * possible, i.e., with the lowest start level, otherwise it misses the bundles
+ * that started before.
+ */
+@ProviderType
+public interface StartupTimings {
+
+    /**
+     * Returns the timings of the bundles.
+     *
+     * @return the timings of the bundles in the order of starting them, never
+     *         {@code null}
+     */
+    List<BundleTiming> bundles();
+
+    /**
+     * Returns the critical path of the startup.
+     *
+     * <p>
+     * The critical path ends with the step that finished last and each step is
+     * preceded by the step that it waited for: a bundle waits for the bundle
+     * started before, since the framework starts the bundles one by one, and a
+     * service registered after its bundle started, e.g., by a Declarative
+     * Services component, waits for the latest registered service that its
+     * bundle uses.
+     *
+     * @return the steps of the critical path in the order of their completion,
+     *         never {@code null}
+     */
+    List<StartupStep> criticalPath();
+
+    /**
+     * Formats a human-readable report with the critical path and with the
+     * timings of the bundles.
+     *
+     * @return the report
+     */
+    String report();
+}
@@ -0,0 +1,56 @@
+package net.yetamine.lectures.osgi.startup.internal;
+
+import net.yetamine.lectures.osgi.startup.StartupTimings;
+import org.osgi.annotation.bundle.Header;
+import org.osgi.framework.BundleActivator;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+
+/**
+ * Starts recording the startup and registers the recorded timings as a
+ * {@link StartupTimings} service.
+ *
+ * <p>
+ * The recording ends when the framework has started and no bundle started or
+ * registered a service for the settle period, which may be set with the
+ * {@value #SETTLE_PROPERTY} framework property in milliseconds. Then the
+ * activator prints the report.
+ */
+@Header(name = Constants.BUNDLE_ACTIVATOR, value = "${@class}")
+public final class Activator implements BundleActivator {
+
+    /**
+     * Name of the framework property with the settle period in milliseconds.
+     */
+    public static final String SETTLE_PROPERTY = "net.yetamine.lectures.osgi.startup.settle";
+
+    private static final long SETTLE_DEFAULT = 5000;
+
+    private StartupRecorder recorder;
+
+    /**
+     * Creates a new instance.
+     */
+    public Activator() {
+        // Default constructor
+    }
+
+    /**
+     * @see org.osgi.framework.BundleActivator#start(org.osgi.framework.BundleContext)
+     */
+    @Override
+    public void start(BundleContext context) throws Exception {
+        final String settle = context.getProperty(SETTLE_PROPERTY);
+        recorder = new StartupRecorder(context, (settle != null) ? Long.parseLong(settle) : SETTLE_DEFAULT);
+        recorder.open(() -> System.out.println(recorder.report()));
+        context.registerService(StartupTimings.class, recorder, null);
+    }
+
+    /**
+     * @see org.osgi.framework.BundleActivator#stop(org.osgi.framework.BundleContext)
+     */
+    @Override
+    public void stop(BundleContext context) throws Exception {
+        recorder.close();
+    }
+}
@@ -0,0 +1,501 @@
+package net.yetamine.lectures.osgi.startup.internal;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import net.yetamine.lectures.osgi.startup.BundleTiming;
+import net.yetamine.lectures.osgi.startup.ServiceTiming;
+import net.yetamine.lectures.osgi.startup.StartupStep;
+import net.yetamine.lectures.osgi.startup.StartupTimings;
+import org.osgi.framework.AllServiceListener;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.Constants;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.SynchronousBundleListener;
+import org.osgi.framework.hooks.resolver.ResolverHook;
+import org.osgi.framework.hooks.resolver.ResolverHookFactory;
+import org.osgi.framework.wiring.BundleCapability;
+import org.osgi.framework.wiring.BundleRequirement;
+import org.osgi.framework.wiring.BundleRevision;
+
+/**
+ * Records the startup timings from the framework events.
+ *
+ * <p>
+ * The recorder uses synchronous listeners, so that it gets the events when
+ * they happen, and a resolver hook, which tells when a resolve operation
+ * begins and ends, and which bundles it may resolve. Each resolved bundle gets
+ * the duration of the resolve operation that resolved it, which is shared by
+ * all bundles resolved together, because the framework does not resolve them
+ * one by one. The listeners just take the time and store it, everything
+ * else happens when the timings are requested. The recording stops when the
+ * framework has started and nothing happened for the settle period, so that
+ * the recorder does not keep collecting data when the startup is over.
+ */
+final class StartupRecorder implements StartupTimings, SynchronousBundleListener, AllServiceListener, FrameworkListener, ResolverHookFactory {
+
+    private final BundleContext context;
+    private final long settle;
+    private final long origin = System.nanoTime();
+
+    // Guarded by this
+    private final Map<Long, BundleRecord> bundles = new LinkedHashMap<>();
+    private final Map<Long, ServiceRecord> services = new HashMap<>();
+    private ServiceRegistration<ResolverHookFactory> hook;
+    private final Map<Long, Long> resolved = new HashMap<>(); // Bundle ID -> duration of its resolve operation
+    private Runnable finished;
+    private long activity;
+    private boolean closed;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param givenContext
+     *            the context to use. It must not be {@code null}.
+     * @param givenSettle
+     *            the settle period in milliseconds
+     */
+    StartupRecorder(BundleContext givenContext, long givenSettle) {
+        context = Objects.requireNonNull(givenContext);
+        settle = TimeUnit.MILLISECONDS.toNanos(givenSettle);
+    }
+
+    /**
+     * Starts recording.
+     *
+     * @param action
+     *            the action to run when the recording finishes. It must not be
+     *            {@code null}.
+     */
+    void open(Runnable action) {
+        synchronized (this) {
+            finished = Objects.requireNonNull(action);
+            activity = System.nanoTime();
+        }
+
+        context.addFrameworkListener(this);
+        context.addBundleListener(this);
+        context.addServiceListener(this);
+        final ServiceRegistration<ResolverHookFactory> registration = context.registerService(ResolverHookFactory.class, this, null);
+        synchronized (this) {
+            hook = registration;
+        }
+
+        if (context.getBundle(Constants.SYSTEM_BUNDLE_LOCATION).getState() == Bundle.ACTIVE) {
+            schedule(); // Started after the framework, no event comes
+        }
+    }
+
+    /**
+     * Stops recording, but keeps the recorded timings.
+     */
+    void close() {
+        final ServiceRegistration<ResolverHookFactory> registration;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            registration = hook;
+            hook = null;
+        }
+
+        context.removeFrameworkListener(this);
+        context.removeBundleListener(this);
+        context.removeServiceListener(this);
+        try {
+            if (registration != null) {
+                registration.unregister();
+            }
+        } catch (IllegalStateException e) {
+            // Unregistered already, the bundle stops
+        }
+    }
+
+    // Listeners and hooks
+
+    /**
+     * @see org.osgi.framework.FrameworkListener#frameworkEvent(org.osgi.framework.FrameworkEvent)
+     */
+    @Override
+    public void frameworkEvent(FrameworkEvent event) {
+        if (event.getType() == FrameworkEvent.STARTED) {
+            schedule();
+        }
+    }
+
+    /**
+     * @see org.osgi.framework.BundleListener#bundleChanged(org.osgi.framework.BundleEvent)
+     */
+    @Override
+    public void bundleChanged(BundleEvent event) {
+        final long now = System.nanoTime();
+        final Bundle bundle = event.getBundle();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            switch (event.getType()) {
+                case BundleEvent.RESOLVED:
+                    record(bundle).resolve = resolved.getOrDefault(bundle.getBundleId(), -1L);
+                    break;
+
+                case BundleEvent.STARTING:
+                    record(bundle).starting = now;
+                    break;
+
+                case BundleEvent.STARTED:
+                    record(bundle).started = now;
+                    break;
+
+                default:
+                    return;
+            }
+
+            activity = now;
+        }
+    }
+
+    /**
+     * @see org.osgi.framework.ServiceListener#serviceChanged(org.osgi.framework.ServiceEvent)
+     */
+    @Override
+    public void serviceChanged(ServiceEvent event) {
+        if (event.getType() != ServiceEvent.REGISTERED) {
+            return;
+        }
+
+        final long now = System.nanoTime();
+        final ServiceReference<?> reference = event.getServiceReference();
+        final Bundle bundle = reference.getBundle();
+        if (bundle == null) {
+            return; // Unregistered meanwhile
+        }
+
+        // Get the used services out of the lock, the framework has own locks
+        final ServiceReference<?>[] using = bundle.getServicesInUse();
+        final var used = new ArrayList<Long>((using != null) ? using.length : 0);
+        if (using != null) {
+            for (ServiceReference<?> service : using) {
+                used.add(id(service));
+            }
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            final BundleRecord record = bundles.get(bundle.getBundleId());
+            if (record == null) {
+                return; // Started before recording, nothing to relate to
+            }
+
+            final boolean late = (record.started != 0);
+            services.put(id(reference), new ServiceRecord(id(reference), record, name(reference), now, late, used));
+            activity = now;
+        }
+    }
+
+    /**
+     * @see org.osgi.framework.hooks.resolver.ResolverHookFactory#begin(java.util.Collection)
+     */
+    @Override
+    public ResolverHook begin(Collection<BundleRevision> triggers) {
+        final long begin = System.nanoTime();
+        final Set<Long> resolving = new HashSet<>();
+        triggers.forEach(revision -> resolving.add(revision.getBundle().getBundleId()));
+        return new ResolverHook() {
+
+            @Override
+            public void filterResolvable(Collection<BundleRevision> candidates) {
+                // Do not interfere, just remember what this operation may resolve
+                candidates.forEach(revision -> resolving.add(revision.getBundle().getBundleId()));
+            }
+
+            @Override
+            public void filterSingletonCollisions(BundleCapability singleton, Collection<BundleCapability> collisionCandidates) {
+                // Do not interfere
+            }
+
+            @Override
+            public void filterMatches(BundleRequirement requirement, Collection<BundleCapability> candidates) {
+                // Do not interfere
+            }
+
+            @Override
+            public void end() {
+                final long duration = System.nanoTime() - begin;
+                synchronized (StartupRecorder.this) {
+                    // The events of the resolved bundles come after the end
+                    resolving.forEach(id -> resolved.put(id, duration));
+                }
+            }
+        };
+    }
+
+    // Timings
+
+    /**
+     * @see net.yetamine.lectures.osgi.startup.StartupTimings#bundles()
+     */
+    @Override
+    public synchronized List<BundleTiming> bundles() {
+        final var result = new ArrayList<BundleTiming>(bundles.size());
+        for (BundleRecord record : started()) {
+            final var registered = new ArrayList<ServiceTiming>();
+            for (ServiceRecord service : services.values()) {
+                if ((service.bundle == record) && service.late) {
+                    registered.add(new ServiceTiming(service.id, service.name, time(service.at), duration(service.at - record.started)));
+                }
+            }
+
+            registered.sort(Comparator.comparing(ServiceTiming::registered));
+            result.add(new BundleTiming(
+                record.id,
+                record.name,
+                (record.resolve >= 0) ? duration(record.resolve) : null,
+                (record.starting != 0) && (record.started != 0) ? duration(record.started - record.starting) : null,
+                (record.started != 0) ? time(record.started) : null,
+                registered));
+        }
+
+        return result;
+    }
+
+    /**
+     * @see net.yetamine.lectures.osgi.startup.StartupTimings#criticalPath()
+     */
+    @Override
+    public synchronized List<StartupStep> criticalPath() {
+        // Make the nodes: the starts of the bundles and the late registrations
+        final var starts = new HashMap<BundleRecord, Node>();
+        final var nodes = new ArrayList<Node>();
+        for (BundleRecord record : started()) {
+            if ((record.starting != 0) && (record.started != 0)) {
+                final var node = new Node("start " + record.name, record, record.starting, record.started);
+                starts.put(record, node);
+                nodes.add(node);
+            }
+        }
+
+        final var registrations = new HashMap<ServiceRecord, Node>();
+        for (ServiceRecord service : services.values()) {
+            if (service.late) {
+                final var node = new Node("register " + service.name, service.bundle, service.bundle.started, service.at);
+                registrations.put(service, node);
+                nodes.add(node);
+            }
+        }
+
+        // Link each node to the node that it waited for
+        nodes.sort(Comparator.comparingLong(Node::end));
+        for (Node node : starts.values()) {
+            // The framework starts the bundles one by one
+            for (Node candidate : nodes) {
+                if (candidate.end > node.begin) {
+                    break;
+                }
+
+                node.predecessor = candidate;
+            }
+        }
+
+        for (Map.Entry<ServiceRecord, Node> registration : registrations.entrySet()) {
+            final Node node = registration.getValue();
+            node.predecessor = starts.get(node.bundle);
+            for (Long used : registration.getKey().used) {
+                final ServiceRecord dependency = services.get(used);
+                if ((dependency == null) || (dependency.bundle == node.bundle)) {
+                    continue;
+                }
+
+                final Node candidate = dependency.late ? registrations.get(dependency) : starts.get(dependency.bundle);
+                if ((candidate == null) || (candidate.end > node.end)) {
+                    continue;
+                }
+
+                if ((node.predecessor == null) || (node.predecessor.end < candidate.end)) {
+                    node.predecessor = candidate; // Waited for the latest dependency
+                }
+            }
+        }
+
+        // Walk back from the node that finished last
+        final var result = new ArrayList<StartupStep>();
+        final Set<Node> visited = new HashSet<>();
+        for (Node node = nodes.isEmpty() ? null : nodes.get(nodes.size() - 1); (node != null) && visited.add(node); node = node.predecessor) {
+            result.add(new StartupStep(node.name, node.bundle.id, time(node.end), duration(node.end - node.begin)));
+        }
+
+        return result.reversed();
+    }
+
+    /**
+     * @see net.yetamine.lectures.osgi.startup.StartupTimings#report()
+     */
+    @Override
+    public String report() {
+        final List<BundleTiming> timings = bundles();
+        final List<StartupStep> path = criticalPath();
+
+        final var result = new StringBuilder();
+        final Duration ready = timings.stream().map(BundleTiming::ready).filter(Objects::nonNull).max(Comparator.naturalOrder()).orElse(Duration.ZERO);
+        result.append(String.format("Startup of %d bundles ready after %s%n", timings.size(), format(ready)));
+
+        result.append(String.format("%nCritical path (@ finished, + took):%n"));
+        for (StartupStep step : path) {
+            result.append(String.format("  @%10s  +%10s  %s%n", format(step.finished()), format(step.took()), step.name()));
+        }
+
+        result.append(String.format("%nBundles by start duration (resolve: the whole operation that resolved the bundle):%n"));
+        result.append(String.format("  %5s  %10s  %10s  %10s  %s%n", "id", "resolve", "start", "ready", "bundle"));
+        final var sorted = new ArrayList<>(timings);
+        sorted.sort(Comparator.comparing(BundleTiming::start, Comparator.nullsLast(Comparator.reverseOrder())));
+        for (BundleTiming timing : sorted) {
+            result.append(String.format("  %5d  %10s  %10s  %10s  %s%n",
+                timing.id(),
+                format(timing.resolve()),
+                format(timing.start()),
+                format(timing.ready()),
+                timing.symbolicName()));
+
+            for (ServiceTiming service : timing.services()) {
+                result.append(String.format("  %5s  %10s  %10s  %10s    %s (waited %s)%n", "", "", "", format(service.registered()), service.name(), format(service.waited())));
+            }
+        }
+
+        return result.toString();
+    }
+
+    private List<BundleRecord> started() {
+        final var result = new ArrayList<>(bundles.values());
+        result.sort(Comparator.comparingLong(record -> (record.starting != 0) ? record.starting : Long.MAX_VALUE));
+        return result;
+    }
+
+    private BundleRecord record(Bundle bundle) {
+        return bundles.computeIfAbsent(bundle.getBundleId(), id -> new BundleRecord(id, bundle.getSymbolicName()));
+    }
+
+    private void schedule() {
+        CompletableFuture.delayedExecutor(settle, TimeUnit.NANOSECONDS).execute(this::settle);
+    }
+
+    private void settle() {
+        final Runnable action;
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            if (System.nanoTime() - activity < settle) {
+                schedule(); // Not settled yet, check later
+                return;
+            }
+
+            action = finished;
+        }
+
+        close();
+        action.run();
+    }
+
+    private Duration time(long nanos) {
+        return Duration.ofNanos(nanos - origin);
+    }
+
+    private static Duration duration(long nanos) {
+        return Duration.ofNanos(nanos);
+    }
+
+    private static String format(Duration duration) {
+        return (duration != null) ? String.format("%.1f ms", duration.toNanos() / 1e6) : "-";
+    }
+
+    private static long id(ServiceReference<?> reference) {
+        return (Long) reference.getProperty(Constants.SERVICE_ID);
+    }
+
+    private static String name(ServiceReference<?> reference) {
+        final Object component = reference.getProperty("component.name");
+        return (component != null) ? component.toString() : String.join(", ", (String[]) reference.getProperty(Constants.OBJECTCLASS));
+    }
+
+    /**
+     * Records the events of a bundle. The times are the values of
+     * {@link System#nanoTime()}, or zero if not known.
+     */
+    private static final class BundleRecord {
+
+        final long id;
+        final String name;
+        long resolve = -1;
+        long starting;
+        long started;
+
+        BundleRecord(long givenId, String givenName) {
+            id = givenId;
+            name = givenName;
+        }
+    }
+
+    /**
+     * Records a service registration.
+     *
+     * @param id
+     *            the service identifier
+     * @param bundle
+     *            the record of the registering bundle
+     * @param name
+     *            the name of the service
+     * @param at
+     *            the time of the registration
+     * @param late
+     *            {@code true} if registered after the bundle started
+     * @param used
+     *            the identifiers of the services that the bundle used
+     */
+    private record ServiceRecord(long id, BundleRecord bundle, String name, long at, boolean late, List<Long> used) {}
+
+    /**
+     * A node of the startup graph.
+     */
+    private static final class Node {
+
+        final String name;
+        final BundleRecord bundle;
+        final long begin;
+        final long end;
+        Node predecessor;
+
+        Node(String givenName, BundleRecord givenBundle, long givenBegin, long givenEnd) {
+            name = givenName;
+            bundle = givenBundle;
+            begin = givenBegin;
+            end = givenEnd;
+        }
+
+        long end() {
+            return end;
+        }
+    }
+}
@@ -0,0 +1,4 @@
+/**
+ * Implements the recording of the startup timings.
+ */
+package net.yetamine.lectures.osgi.startup.internal;
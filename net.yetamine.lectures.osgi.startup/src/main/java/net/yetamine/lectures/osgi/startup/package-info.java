@@ -0,0 +1,5 @@
+/**
+ * The API for getting the timings of the bundles recorded during the startup.
+ */
+@org.osgi.annotation.versioning.Version("1.0.0")
+package net.yetamine.lectures.osgi.startup;
@@ -1 +1,3 @@
-module net.yetamine.playground {}
+module net.yetamine.playground {
+    requires java.net.http;
+}
@@ -0,0 +1,138 @@
+package net.yetamine.lectures.playground;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records non-negative values, e.g., latencies in nanoseconds, in buckets with
+ * a bounded relative error and computes the percentiles.
+ *
+ * <p>
+ * The buckets grow exponentially, while each power of two is split into the
+ * same number of linear sub-buckets, so that the relative error stays below
+ * 1&nbsp;% for any value and the whole {@code long} range fits in a few
+ * thousand counters. The instances are thread-safe and recording does not
+ * allocate.
+ */
+final class Histogram {
+
+    private static final int SUB_BITS = 8;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int SUB_HALF = SUB_COUNT / 2;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS + 1) * SUB_HALF + SUB_HALF;
+
+    private static final double[] PERCENTILES = {
+        0, 10, 20, 30, 40, 50, 60, 70, 80, 90, 95, 99, 99.5, 99.9, 99.95, 99.99, 99.995, 99.999, 100
+    };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates a new instance.
+     */
+    Histogram() {
+        // Default constructor
+    }
+
+    /**
+     * Records a value.
+     *
+     * @param value
+     *            the value to record. Negative values are recorded as zero.
+     */
+    void record(long value) {
+        final long recorded = Math.max(value, 0);
+        counts.incrementAndGet(index(recorded));
+        total.incrementAndGet();
+        sum.addAndGet(recorded);
+        max.accumulateAndGet(recorded, Math::max);
+    }
+
+    /**
+     * @return the number of recorded values
+     */
+    long count() {
+        return total.get();
+    }
+
+    /**
+     * @return the mean of the recorded values, or zero if no value recorded
+     */
+    double mean() {
+        final long count = total.get();
+        return (count > 0) ? (double) sum.get() / count : 0;
+    }
+
+    /**
+     * @return the maximal recorded value
+     */
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value at the given percentile.
+     *
+     * @param percentile
+     *            the percentile from 0 to 100
+     *
+     * @return the highest value equivalent to the value at the percentile, or
+     *         zero if no value recorded
+     */
+    long percentile(double percentile) {
+        final long count = total.get();
+        if (count == 0) {
+            return 0;
+        }
+
+        final long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highest(i), max());
+            }
+        }
+
+        return max();
+    }
+
+    /**
+     * Prints the distribution of the values at the common percentiles.
+     *
+     * @param output
+     *            the output to print to. It must not be {@code null}.
+     * @param scale
+     *            the divisor for the printed values, e.g., 1000 for printing
+     *            nanoseconds as microseconds
+     */
+    void print(PrintStream output, double scale) {
+        final long count = total.get();
+        for (double percentile : PERCENTILES) {
+            if ((percentile < 100) && (count * (100 - percentile) < 100)) {
+                continue; // Not enough values above this percentile
+            }
+
+            output.format("  %8.3f%% %12.1f%n", percentile, percentile(percentile) / scale);
+        }
+    }
+
+    private static int index(long value) {
+        final int shift = Math.max(0, (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (SUB_BITS - 1));
+        return shift * SUB_HALF + (int) (value >>> shift);
+    }
+
+    private static long highest(int index) {
+        if (index < SUB_COUNT) {
+            return index;
+        }
+
+        final int shift = index / SUB_HALF - 1;
+        final long sub = index - shift * SUB_HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
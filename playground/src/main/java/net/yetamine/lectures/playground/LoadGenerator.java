@@ -0,0 +1,340 @@
+package net.yetamine.lectures.playground;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Generates HTTP load for a single target and measures the latencies.
+ *
+ * <p>
+ * The generator works in two modes:
+ *
+ * <ul>
+ * <li>The closed loop runs a fixed number of clients, each sending a request
+ * after getting the response to the previous one. With a target rate, the
+ * clients pace their requests to achieve the rate together.</li>
+ * <li>The open loop sends the requests at the target rate regardless of the
+ * responses, each request from its own virtual thread, up to the given number
+ * of requests in flight.</li>
+ * </ul>
+ *
+ * <p>
+ * When the server stalls, a closed-loop client stops sending and the requests
+ * that should have been sent meanwhile are never measured, which is known as
+ * the coordinated omission. Therefore, whenever a target rate is known, the
+ * latency is measured from the time when the request should have been sent
+ * according to the schedule, rather than from the time when it was actually
+ * sent. The service time, measured from the actual sending, is recorded as
+ * well for comparison. Without a target rate, the closed loop has no schedule
+ * and both values are the same. When the closed-loop clients fall so much
+ * behind the schedule that they could not send some requests before the end of
+ * the run, these requests are reported as missed.
+ */
+final class LoadGenerator {
+
+    /**
+     * Mode of the load generation.
+     */
+    enum Mode {
+
+        /**
+         * A fixed number of clients, each waiting for the response.
+         */
+        CLOSED,
+
+        /**
+         * A fixed rate of requests, not waiting for the responses.
+         */
+        OPEN
+    }
+
+    private final HttpClient client;
+    private final Target target;
+    private final Mode mode;
+    private final int concurrency;
+    private final double rate;
+    private final Duration timeout;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param givenClient
+     *            the client to use. It must not be {@code null}.
+     * @param givenTarget
+     *            the target to drive. It must not be {@code null}.
+     * @param givenMode
+     *            the mode. It must not be {@code null}.
+     * @param givenConcurrency
+     *            the number of clients for the closed loop, or the maximal
+     *            number of requests in flight for the open loop. It must be
+     *            positive.
+     * @param givenRate
+     *            the target rate in requests per second. It must be positive
+     *            for the open loop and non-negative for the closed loop, where
+     *            zero means no pacing.
+     * @param givenTimeout
+     *            the timeout of a request. It must not be {@code null}.
+     */
+    LoadGenerator(HttpClient givenClient, Target givenTarget, Mode givenMode, int givenConcurrency, double givenRate, Duration givenTimeout) {
+        if (givenConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be positive.");
+        }
+
+        if ((givenRate < 0) || ((givenMode == Mode.OPEN) && (givenRate == 0))) {
+            throw new IllegalArgumentException("Rate must be positive for the open loop and non-negative otherwise.");
+        }
+
+        client = Objects.requireNonNull(givenClient);
+        target = Objects.requireNonNull(givenTarget);
+        mode = Objects.requireNonNull(givenMode);
+        timeout = Objects.requireNonNull(givenTimeout);
+        concurrency = givenConcurrency;
+        rate = givenRate;
+    }
+
+    /**
+     * Runs the load for the given time.
+     *
+     * @param duration
+     *            the duration of the run. It must not be {@code null}.
+     *
+     * @return the result of the run
+     *
+     * @throws InterruptedException
+     *             if interrupted
+     */
+    Result run(Duration duration) throws InterruptedException {
+        final var result = new Result(target, mode, rate);
+        final long start = System.nanoTime();
+        final long deadline = start + duration.toNanos();
+        switch (mode) {
+            case CLOSED -> runClosed(result, start, deadline);
+            case OPEN -> runOpen(result, start, deadline);
+        }
+
+        result.elapsed = System.nanoTime() - start;
+        return result;
+    }
+
+    private void runClosed(Result result, long start, long deadline) throws InterruptedException {
+        // The clients share the rate, each with an offset to spread the requests
+        final double interval = (rate > 0) ? concurrency * 1e9 / rate : 0;
+        final var clients = new ArrayList<Thread>(concurrency);
+        for (int i = 0; i < concurrency; i++) {
+            final double offset = interval * i / concurrency;
+            clients.add(Thread.ofVirtual().name("LoadGenerator-" + i).start(() -> {
+                for (long k = 0;; k++) {
+                    final long now = System.nanoTime();
+                    final long intended = (interval > 0) ? start + (long) (offset + k * interval) : now;
+                    if (intended - deadline >= 0) {
+                        return;
+                    }
+
+                    if (now - deadline >= 0) { // Late, count the requests that the schedule still had
+                        result.missed.add((long) Math.ceil((deadline - start - offset) / interval) - k);
+                        return;
+                    }
+
+                    if (!await(intended) || !send(result, intended)) {
+                        return;
+                    }
+                }
+            }));
+        }
+
+        for (Thread client : clients) {
+            client.join();
+        }
+    }
+
+    private void runOpen(Result result, long start, long deadline) {
+        final double interval = 1e9 / rate;
+        final var inFlight = new Semaphore(concurrency);
+        try (var executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("LoadGenerator-", 0).factory())) {
+            for (long k = 0;; k++) {
+                final long intended = start + (long) (k * interval);
+                if ((intended - deadline >= 0) || !await(intended)) {
+                    break;
+                }
+
+                // The latency counts from the intended time, including waiting for a slot
+                executor.execute(() -> {
+                    try {
+                        inFlight.acquire();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+
+                    try {
+                        send(result, intended);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } // Waits for the requests in flight
+    }
+
+    private boolean send(Result result, long intended) {
+        final var request = HttpRequest.newBuilder(target.next()).timeout(timeout).GET().build();
+        final long sent = System.nanoTime();
+        try {
+            final var response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            final long received = System.nanoTime();
+            if ((response.statusCode() >= 200) && (response.statusCode() < 300)) {
+                result.latency.record(received - intended);
+                result.serviceTime.record(received - sent);
+            } else {
+                result.errors.increment();
+            }
+        } catch (IOException e) {
+            result.errors.increment();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+
+        return true;
+    }
+
+    private static boolean await(long time) {
+        for (long remaining; (remaining = time - System.nanoTime()) > 0;) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Expands a URI template with a {@code {id}} placeholder, which gets the
+     * identifiers from 0 to the given count cyclically, and with a {@code *}
+     * wildcard, which gets a fixed resource name.
+     */
+    static final class Target {
+
+        private static final String ID = "%7Bid%7D"; // Encoded form of {id}
+
+        private final String template;
+        private final int ids;
+        private final AtomicLong counter = new AtomicLong();
+
+        /**
+         * Creates a new instance.
+         *
+         * @param base
+         *            the base URI of the server. It must not be {@code null}.
+         * @param path
+         *            the path template. It must not be {@code null}.
+         * @param resource
+         *            the resource name for the wildcard. It must not be
+         *            {@code null}.
+         * @param givenIds
+         *            the number of distinct identifiers. It must be positive.
+         */
+        Target(URI base, String path, String resource, int givenIds) {
+            if (givenIds < 1) {
+                throw new IllegalArgumentException("The number of identifiers must be positive.");
+            }
+
+            template = base.resolve(path.replace("*", resource).replace("{id}", ID)).toString();
+            ids = givenIds;
+        }
+
+        /**
+         * @return the next URI to request
+         */
+        URI next() {
+            return URI.create(template.replace(ID, Long.toString(counter.getAndIncrement() % ids)));
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return template.replace(ID, "{id}");
+        }
+    }
+
+    /**
+     * Summarizes a run.
+     */
+    static final class Result {
+
+        final Target target;
+        final Mode mode;
+        final double rate;
+
+        final Histogram latency = new Histogram();
+        final Histogram serviceTime = new Histogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder missed = new LongAdder();
+        long elapsed;
+
+        Result(Target givenTarget, Mode givenMode, double givenRate) {
+            target = givenTarget;
+            mode = givenMode;
+            rate = givenRate;
+        }
+
+        /**
+         * @return the number of successful requests per second
+         */
+        double throughput() {
+            return latency.count() * 1e9 / elapsed;
+        }
+
+        /**
+         * @return {@code true} if the latency is corrected for the coordinated
+         *         omission
+         */
+        boolean corrected() {
+            return rate > 0;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return String.format("%s %s loop: %,d requests, %,.0f req/s%s, errors=%d, missed=%d%n  latency      %s%n  service time %s",
+                target,
+                mode.name().toLowerCase(Locale.ROOT),
+                latency.count(),
+                throughput(),
+                corrected() ? String.format(" (target %,.0f req/s)", rate) : "",
+                errors.sum(),
+                missed.sum(),
+                summary(latency),
+                summary(serviceTime));
+        }
+
+        private static String summary(Histogram histogram) {
+            return String.format("p50=%d us p90=%d us p99=%d us p99.9=%d us p99.99=%d us max=%d us mean=%.0f us",
+                histogram.percentile(50) / 1000,
+                histogram.percentile(90) / 1000,
+                histogram.percentile(99) / 1000,
+                histogram.percentile(99.9) / 1000,
+                histogram.percentile(99.99) / 1000,
+                histogram.max() / 1000,
+                histogram.mean() / 1000);
+        }
+    }
+}
@@ -1,7 +1,125 @@
 package net.yetamine.lectures.playground;
 
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+/**
+ * Generates HTTP load for the endpoints of the demos running in a local
+ * framework and prints the latency distribution for each endpoint.
+ *
+ * <p>
+ * The arguments are the paths to drive, which may contain the {@code {id}}
+ * placeholder and the {@code *} wildcard (see {@link LoadGenerator.Target}),
+ * and following options:
+ *
+ * <ul>
+ * <li>{@code --base=URI}: the base URI of the server
+ * ({@code http://localhost:8181} by default, which Karaf uses),</li>
+ * <li>{@code --mode=closed|open}: the load generation mode ({@code closed} by
+ * default),</li>
+ * <li>{@code --concurrency=N}: the number of clients for the closed loop, or
+ * the maximal number of requests in flight for the open loop (16 by
+ * default),</li>
+ * <li>{@code --rate=N}: the target rate in requests per second, required for
+ * the open loop (no pacing by default),</li>
+ * <li>{@code --warmup=N}: the warm-up time in seconds (5 by default),</li>
+ * <li>{@code --duration=N}: the measurement time in seconds (10 by
+ * default),</li>
+ * <li>{@code --timeout=N}: the request timeout in seconds (10 by
+ * default),</li>
+ * <li>{@code --ids=N}: the number of distinct identifiers for {@code {id}}
+ * (100 by default),</li>
+ * <li>{@code --resource=NAME}: the resource name for {@code *}
+ * ({@code index.html} by default),</li>
+ * <li>{@code --histogram}: print the whole latency distribution.</li>
+ * </ul>
+ *
+ * <p>
+ * Without paths, the generator drives {@code /rest/hello/{id}},
+ * {@code /hello/secret} and {@code /hello/*} one after another.
+ */
 public final class Main {
-    public static void main(String... args) {
-        // TODO: Write some code here
+
+    private static final List<String> DEFAULT_PATHS = List.of("/rest/hello/{id}", "/hello/secret", "/hello/*");
+
+    private static final Set<String> OPTIONS = Set.of(
+        "base", "mode", "concurrency", "rate", "warmup", "duration", "timeout", "ids", "resource", "histogram");
+
+    private Main() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Runs the load generator.
+     *
+     * @param args
+     *            the paths and the options
+     *
+     * @throws Exception
+     *             if the load generation fails
+     */
+    public static void main(String... args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        final List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                final int separator = arg.indexOf('=');
+                final var name = (separator < 0) ? arg.substring(2) : arg.substring(2, separator);
+                if (!OPTIONS.contains(name)) {
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+                }
+
+                options.put(name, (separator < 0) ? "true" : arg.substring(separator + 1));
+            } else {
+                paths.add(arg);
+            }
+        }
+
+        final var base = URI.create(options.getOrDefault("base", "http://localhost:8181"));
+        final var mode = LoadGenerator.Mode.valueOf(options.getOrDefault("mode", "closed").toUpperCase(Locale.ROOT));
+        final int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "16"));
+        final double rate = Double.parseDouble(options.getOrDefault("rate", "0"));
+        final var warmup = Duration.ofSeconds(Long.parseLong(options.getOrDefault("warmup", "5")));
+        final var duration = Duration.ofSeconds(Long.parseLong(options.getOrDefault("duration", "10")));
+        final var timeout = Duration.ofSeconds(Long.parseLong(options.getOrDefault("timeout", "10")));
+        final int ids = Integer.parseInt(options.getOrDefault("ids", "100"));
+        final var resource = options.getOrDefault("resource", "index.html");
+        final boolean histogram = Boolean.parseBoolean(options.getOrDefault("histogram", "false"));
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            final var client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .executor(executor)
+                .build();
+
+            System.out.format("%s loop, concurrency %d, rate %s, warm-up %s, duration %s%n",
+                mode.name().toLowerCase(Locale.ROOT),
+                concurrency,
+                (rate > 0) ? String.format("%,.0f req/s", rate) : "unlimited",
+                warmup,
+                duration);
+
+            for (String path : paths.isEmpty() ? DEFAULT_PATHS : paths) {
+                final var target = new LoadGenerator.Target(base, path, resource, ids);
+                final var generator = new LoadGenerator(client, target, mode, concurrency, rate, timeout);
+                generator.run(warmup);
+
+                final var result = generator.run(duration);
+                System.out.println(result);
+                if (histogram) {
+                    System.out.println("  latency distribution (us):");
+                    result.latency.print(System.out, 1000);
+                }
+            }
+        }
     }
 }
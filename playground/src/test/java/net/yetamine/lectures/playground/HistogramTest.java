@@ -0,0 +1,110 @@
+package net.yetamine.lectures.playground;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests {@link Histogram}.
+ */
+final class HistogramTest {
+
+    @Test
+    void testEmpty() {
+        final var histogram = new Histogram();
+        assertEquals(0, histogram.count());
+        assertEquals(0, histogram.mean());
+        assertEquals(0, histogram.max());
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(0, histogram.percentile(100));
+    }
+
+    @Test
+    void testRecording() {
+        final var histogram = new Histogram();
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        histogram.record(-5); // Recorded as zero
+
+        assertEquals(101, histogram.count());
+        assertEquals(5050 / 101.0, histogram.mean(), 1e-9);
+        assertEquals(100, histogram.max());
+    }
+
+    @Test
+    void testSmallValuesExact() {
+        final var histogram = new Histogram();
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1, histogram.percentile(0));
+        assertEquals(50, histogram.percentile(50));
+        assertEquals(90, histogram.percentile(90));
+        assertEquals(99, histogram.percentile(99));
+        assertEquals(100, histogram.percentile(100));
+        assertEquals(100, histogram.percentile(200)); // Clamped
+    }
+
+    @ParameterizedTest
+    @ValueSource(longs = { 1L, 255L, 256L, 257L, 1_000L, 12_345L, 1_000_000_007L, Long.MAX_VALUE / 3, Long.MAX_VALUE })
+    void testErrorBoundAtBoundaries(long value) {
+        final var histogram = new Histogram();
+        histogram.record(value);
+        histogram.record(Long.MAX_VALUE); // Keep the maximum from clamping the result
+
+        assertWithinBound(value, histogram.percentile(50));
+    }
+
+    @Test
+    void testErrorBoundOfPercentiles() {
+        final var random = new Random(42);
+        final long[] values = new long[100_000];
+        final var histogram = new Histogram();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.pow(10, random.nextDouble() * 12); // Up to 1e12, spread over the magnitudes
+            histogram.record(values[i]);
+        }
+
+        Arrays.sort(values);
+        for (double percentile : new double[] { 0, 10, 50, 90, 99, 99.9, 99.99, 100 }) {
+            final int rank = Math.max(1, (int) Math.ceil(percentile / 100 * values.length));
+            assertWithinBound(values[rank - 1], histogram.percentile(percentile));
+        }
+    }
+
+    @Test
+    void testConcurrentRecording() throws InterruptedException {
+        final var histogram = new Histogram();
+        final int threads = 4;
+        final int values = 10_000;
+        try (ExecutorService executor = Executors.newFixedThreadPool(threads)) {
+            for (int i = 0; i < threads; i++) {
+                executor.execute(() -> {
+                    for (int value = 1; value <= values; value++) {
+                        histogram.record(value);
+                    }
+                });
+            }
+        }
+
+        assertEquals(threads * values, histogram.count());
+        assertEquals((values + 1) / 2.0, histogram.mean(), 1e-9);
+        assertEquals(values, histogram.max());
+        assertEquals(values, histogram.percentile(100));
+    }
+
+    private static void assertWithinBound(long expected, long actual) {
+        assertTrue(expected <= actual, () -> String.format("Expected at least %d, but got %d.", expected, actual));
+        assertTrue((actual - expected) < expected / 100.0 + 1, () -> String.format("Expected %d within 1 %%, but got %d.", expected, actual));
+    }
+}